@@ -0,0 +1,385 @@
+package edu.sjsu.cs249.abd;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import edu.sjsu.cs249.abd.ABDServiceGrpc.ABDServiceFutureStub;
+import edu.sjsu.cs249.abd.Grpc.PipelineRequest;
+import edu.sjsu.cs249.abd.Grpc.PipelineResponse;
+import edu.sjsu.cs249.abd.Grpc.Read1BatchRequest;
+import edu.sjsu.cs249.abd.Grpc.Read1Request;
+import edu.sjsu.cs249.abd.Grpc.Read1Response;
+import edu.sjsu.cs249.abd.Grpc.Read2BatchRequest;
+import edu.sjsu.cs249.abd.Grpc.Read2Request;
+import edu.sjsu.cs249.abd.Grpc.WriteBatchRequest;
+import edu.sjsu.cs249.abd.Grpc.WriteRequest;
+import edu.sjsu.cs249.abd.Grpc.WriteResponse;
+import edu.sjsu.cs249.abd.RegisterStore.Register;
+import io.grpc.Channel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Client side of the ABD protocol over a set of replicas. Every phase is sent to all replicas and completes
+ * as soon as a majority has answered; the calls still outstanding at that point are cancelled, so a slow
+ * replica only costs latency when it is needed for the majority.
+ * <p>
+ * With a batch window the phases of concurrent operations are coalesced into read1Batch, read2Batch and
+ * writeBatch calls, trading up to one window of latency for far fewer round trips. Phases that are not batched
+ * can be pipelined over one long lived stream per replica instead of paying for a unary call each.
+ * <p>
+ * A read whose first majority of read1 responses all carry the same label skips the write back: a majority
+ * already holds that register, so every later read will see it or something newer.
+ * <p>
+ * With a {@link LabelClock} a write picks its label itself and skips the read1 that discovers the current one.
+ * If any replica of the majority already holds a larger label the write is not known to be ordered after every
+ * write that finished before it, so it is done again the usual way.
+ * <p>
+ * The low {@link LabelClock#WRITER_BITS} bits of every label are the id of the writer that made it, so two
+ * writers that discover the same largest label still pick different labels for their writes. Without a clock
+ * the id is picked at random. Should two writers still pick the same label, the replicas that got the other
+ * value first report a conflict and the write is done again with a newly discovered label.
+ */
+public class ABDClient {
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        var t = new Thread(r, "abd-client-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final List<ABDServiceFutureStub> stubs;
+    private final List<ABDPipeline> pipelines;
+    private final int majority;
+    private final long timeoutNanos;
+    private final long batchWindowNanos;
+    private final int maxBatch;
+    private final Batcher<Long, List<Read1Response>> read1Batcher;
+    private final Batcher<Read2Request, Void> read2Batcher;
+    private final Batcher<WriteRequest, Integer> writeBatcher;
+    private final boolean fastRead;
+    private final LabelClock clock;
+    private final int writerId;
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder fastReads = new LongAdder();
+    private final LongAdder staleWrites = new LongAdder();
+
+    /** signals that a phase could not reach a majority of replicas. */
+    public static class QuorumException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        QuorumException(String phase, int responses, int needed) {
+            super(phase + " got " + responses + " responses but needed " + needed);
+        }
+    }
+
+    /**
+     * @param channels one channel per replica.
+     * @param timeout deadline for each phase.
+     */
+    public ABDClient(List<? extends Channel> channels, long timeout, TimeUnit unit) {
+        this(channels, timeout, unit, 0, 0, false);
+    }
+
+    /**
+     * a client that coalesces the phases of concurrent operations into batch RPCs.
+     * @param batchWindowMicros how long the first operation of a batch waits for others to join it. 0 sends
+     *                          every phase as its own RPC.
+     * @param maxBatch a batch is sent right away once it has this many operations.
+     * @param pipeline send the phases that are not batched over one pipeline stream per replica rather than as
+     *                 unary calls.
+     */
+    public ABDClient(List<? extends Channel> channels, long timeout, TimeUnit unit, long batchWindowMicros, int maxBatch, boolean pipeline) {
+        this(channels, timeout, unit, batchWindowMicros, maxBatch, pipeline, true);
+    }
+
+    /** @param fastRead skip the write back of a read when the read1 majority already agrees. */
+    public ABDClient(List<? extends Channel> channels, long timeout, TimeUnit unit, long batchWindowMicros, int maxBatch, boolean pipeline, boolean fastRead) {
+        this(channels, timeout, unit, batchWindowMicros, maxBatch, pipeline, fastRead, null);
+    }
+
+    /** @param clock makes the labels of writes without a discovery round. null discovers the label of every write. */
+    public ABDClient(List<? extends Channel> channels, long timeout, TimeUnit unit, long batchWindowMicros, int maxBatch, boolean pipeline, boolean fastRead, LabelClock clock) {
+        this.fastRead = fastRead;
+        this.clock = clock;
+        writerId = clock != null ? clock.writerId() : ThreadLocalRandom.current().nextInt(1 << LabelClock.WRITER_BITS);
+        stubs = channels.stream().map(ABDServiceGrpc::newFutureStub).toList();
+        pipelines = pipeline ? channels.stream().map(c -> new ABDPipeline(c, TIMER)).toList() : null;
+        majority = stubs.size() / 2 + 1;
+        timeoutNanos = unit.toNanos(timeout);
+        batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+        this.maxBatch = maxBatch;
+        if (batchWindowMicros > 0) {
+            read1Batcher = new Batcher<>(this::sendRead1Batch);
+            read2Batcher = new Batcher<>(this::sendRead2Batch);
+            writeBatcher = new Batcher<>(this::sendWriteBatch);
+        } else {
+            read1Batcher = null;
+            read2Batcher = null;
+            writeBatcher = null;
+        }
+    }
+
+    /** @return the register at addr once a majority holds it, or null if it has never been written. */
+    public CompletableFuture<Register> read(long addr) {
+        reads.increment();
+        return read1(addr).thenCompose(responses -> {
+            var max = maxLabel(responses);
+            if (max == null) return CompletableFuture.completedFuture(null);
+            if (fastRead && agree(responses)) {
+                fastReads.increment();
+                return CompletableFuture.completedFuture(new Register(max.getLabel(), max.getValue()));
+            }
+            var read2 = Read2Request.newBuilder().setAddr(addr).setLabel(max.getLabel()).setValue(max.getValue()).build();
+            return read2(read2).thenApply(ignored -> new Register(max.getLabel(), max.getValue()));
+        });
+    }
+
+    /** @return the label value was written with. */
+    public CompletableFuture<Long> write(long addr, long value) {
+        if (clock == null) return discoverAndWrite(addr, value);
+        var label = clock.next();
+        return write(WriteRequest.newBuilder().setAddr(addr).setLabel(label).setValue(value).build()).thenCompose(rc -> {
+            if (rc == 0) return CompletableFuture.completedFuture(label);
+            staleWrites.increment();
+            return discoverAndWrite(addr, value);
+        });
+    }
+
+    private CompletableFuture<Long> discoverAndWrite(long addr, long value) {
+        return read1(addr).thenCompose(responses -> {
+            var max = maxLabel(responses);
+            long label;
+            if (clock == null) {
+                label = LabelClock.after(max == null ? 0 : max.getLabel(), writerId);
+            } else {
+                if (max != null) clock.advancePast(max.getLabel());
+                label = clock.next();
+            }
+            var write = WriteRequest.newBuilder().setAddr(addr).setLabel(label).setValue(value).build();
+            return write(write).thenCompose(rc -> rc == 2 ? discoverAndWrite(addr, value) : CompletableFuture.completedFuture(label));
+        });
+    }
+
+    /**
+     * store register at addr on a majority, keeping its label. replicas already holding a later label keep theirs.
+     * this is the second phase of a read on its own, used to copy registers between replica groups.
+     */
+    public CompletableFuture<Void> writeBack(long addr, Register register) {
+        var read2 = Read2Request.newBuilder().setAddr(addr).setLabel(register.label()).setValue(register.value()).build();
+        return read2(read2).thenApply(ignored -> null);
+    }
+
+    private CompletableFuture<List<Read1Response>> read1(long addr) {
+        if (read1Batcher != null) return read1Batcher.submit(addr);
+        var read1 = Read1Request.newBuilder().setAddr(addr).build();
+        if (pipelines != null) {
+            return quorum("read1", i -> pipelines.get(i).call(PipelineRequest.newBuilder().setRead1(read1), PipelineResponse::getRead1, timeoutNanos));
+        }
+        return quorum("read1", i -> stub(i).read1(read1));
+    }
+
+    private CompletableFuture<?> read2(Read2Request read2) {
+        if (read2Batcher != null) return read2Batcher.submit(read2);
+        if (pipelines != null) {
+            return quorum("read2", i -> pipelines.get(i).call(PipelineRequest.newBuilder().setRead2(read2), PipelineResponse::getRead2, timeoutNanos));
+        }
+        return quorum("read2", i -> stub(i).read2(read2));
+    }
+
+    /* @return the largest rc of the majority: 1 if a replica already had a larger label, 2 if one had this label with another value */
+    private CompletableFuture<Integer> write(WriteRequest write) {
+        if (writeBatcher != null) return writeBatcher.submit(write);
+        CompletableFuture<List<WriteResponse>> responses;
+        if (pipelines != null) {
+            responses = quorum("write", i -> pipelines.get(i).call(PipelineRequest.newBuilder().setWrite(write), PipelineResponse::getWrite, timeoutNanos));
+        } else {
+            responses = quorum("write", i -> stub(i).write(write));
+        }
+        return responses.thenApply(rsps -> rsps.stream().mapToInt(WriteResponse::getRc).max().orElse(0));
+    }
+
+    /* @return for each address of the batch the majority of responses for it */
+    private CompletableFuture<List<List<Read1Response>>> sendRead1Batch(List<Long> addrs) {
+        var request = Read1BatchRequest.newBuilder().addAllAddr(addrs).build();
+        return quorum("read1Batch", i -> stub(i).read1Batch(request)).thenApply(batches -> {
+            var perAddr = new ArrayList<List<Read1Response>>(addrs.size());
+            for (int i = 0; i < addrs.size(); i++) {
+                var responses = new ArrayList<Read1Response>(batches.size());
+                for (var batch : batches) {
+                    responses.add(Read1Response.newBuilder().setRc(batch.getRc(i)).setLabel(batch.getLabel(i)).setValue(batch.getValue(i)).build());
+                }
+                perAddr.add(responses);
+            }
+            return perAddr;
+        });
+    }
+
+    private CompletableFuture<List<Void>> sendRead2Batch(List<Read2Request> read2s) {
+        var request = Read2BatchRequest.newBuilder();
+        for (var r : read2s) {
+            request.addAddr(r.getAddr()).addLabel(r.getLabel()).addValue(r.getValue());
+        }
+        var built = request.build();
+        return quorum("read2Batch", i -> stub(i).read2Batch(built)).thenApply(ignored -> Collections.nCopies(read2s.size(), null));
+    }
+
+    /* servers that do not report an rc for each write count as having applied them all */
+    private CompletableFuture<List<Integer>> sendWriteBatch(List<WriteRequest> writes) {
+        var request = WriteBatchRequest.newBuilder();
+        for (var w : writes) {
+            request.addAddr(w.getAddr()).addLabel(w.getLabel()).addValue(w.getValue());
+        }
+        var built = request.build();
+        return quorum("writeBatch", i -> stub(i).writeBatch(built)).thenApply(batches -> {
+            var rcs = new ArrayList<Integer>(writes.size());
+            for (int i = 0; i < writes.size(); i++) {
+                var rc = 0;
+                for (var batch : batches) {
+                    if (i < batch.getRcCount()) rc = Math.max(rc, batch.getRc(i));
+                }
+                rcs.add(rc);
+            }
+            return rcs;
+        });
+    }
+
+    /**
+     * collects the items submitted within a batch window and sends them with one call.
+     * @param <Q> an item of a batch request
+     * @param <R> the result for one item
+     */
+    private class Batcher<Q, R> {
+        private final Function<List<Q>, CompletableFuture<List<R>>> send;
+        private List<Q> items = new ArrayList<>();
+        private List<CompletableFuture<R>> waiters = new ArrayList<>();
+
+        Batcher(Function<List<Q>, CompletableFuture<List<R>>> send) {
+            this.send = send;
+        }
+
+        CompletableFuture<R> submit(Q item) {
+            var waiter = new CompletableFuture<R>();
+            boolean full;
+            boolean first;
+            synchronized (this) {
+                items.add(item);
+                waiters.add(waiter);
+                full = items.size() >= maxBatch;
+                first = items.size() == 1;
+            }
+            if (full) {
+                flush();
+            } else if (first) {
+                TIMER.schedule(this::flush, batchWindowNanos, TimeUnit.NANOSECONDS);
+            }
+            return waiter;
+        }
+
+        void flush() {
+            List<Q> batch;
+            List<CompletableFuture<R>> batchWaiters;
+            synchronized (this) {
+                if (items.isEmpty()) return;
+                batch = items;
+                batchWaiters = waiters;
+                items = new ArrayList<>();
+                waiters = new ArrayList<>();
+            }
+            send.apply(batch).whenComplete((results, t) -> {
+                for (int i = 0; i < batchWaiters.size(); i++) {
+                    if (t != null) {
+                        batchWaiters.get(i).completeExceptionally(t);
+                    } else {
+                        batchWaiters.get(i).complete(results.get(i));
+                    }
+                }
+            });
+        }
+    }
+
+    /** @return the number of reads started. */
+    public long reads() {
+        return reads.sum();
+    }
+
+    /** @return the number of reads that found the register already on a majority and skipped the write back. */
+    public long fastReads() {
+        return fastReads.sum();
+    }
+
+    /** @return the number of writes whose label from the {@link LabelClock} was too small, so they were done again. */
+    public long staleWrites() {
+        return staleWrites.sum();
+    }
+
+    /* @return true if every replica of the majority has the register with the same label */
+    private static boolean agree(List<Read1Response> responses) {
+        var first = responses.get(0);
+        for (var rsp : responses) {
+            if (rsp.getRc() != 0 || rsp.getLabel() != first.getLabel() || rsp.getValue() != first.getValue()) return false;
+        }
+        return true;
+    }
+
+    /* @return the response with the largest label, or null if no replica has the address */
+    private static Read1Response maxLabel(List<Read1Response> responses) {
+        Read1Response max = null;
+        for (var rsp : responses) {
+            if (rsp.getRc() != 0) continue;
+            if (max == null || Long.compareUnsigned(rsp.getLabel(), max.getLabel()) > 0) max = rsp;
+        }
+        return max;
+    }
+
+    private ABDServiceFutureStub stub(int replica) {
+        return stubs.get(replica).withDeadlineAfter(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * send a request to every replica.
+     * @return the first majority of responses. fails with {@link QuorumException} once a majority is impossible.
+     */
+    <R> CompletableFuture<List<R>> quorum(String phase, IntFunction<ListenableFuture<R>> call) {
+        var result = new CompletableFuture<List<R>>();
+        var responses = new ArrayList<R>(majority);
+        var failures = new int[1];
+        var calls = new ArrayList<ListenableFuture<R>>(stubs.size());
+        for (int i = 0; i < stubs.size(); i++) {
+            var future = call.apply(i);
+            calls.add(future);
+            Futures.addCallback(future, new FutureCallback<>() {
+                @Override
+                public void onSuccess(R rsp) {
+                    synchronized (responses) {
+                        if (responses.size() == majority) return;
+                        responses.add(rsp);
+                        if (responses.size() < majority) return;
+                    }
+                    result.complete(responses);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    int responded;
+                    synchronized (responses) {
+                        if (++failures[0] != stubs.size() - majority + 1) return;
+                        responded = responses.size();
+                    }
+                    result.completeExceptionally(new QuorumException(phase, responded, majority));
+                }
+            }, MoreExecutors.directExecutor());
+        }
+        result.whenComplete((r, t) -> calls.forEach(c -> c.cancel(false)));
+        return result;
+    }
+}
@@ -0,0 +1,22 @@
+package edu.sjsu.cs249.abd;
+
+import edu.sjsu.cs249.abd.RegisterStore.Register;
+
+/**
+ * A client implementation that testClient can exercise inside its own JVM instead of launching a process for
+ * every operation. Implementations need a public no argument constructor so they can be loaded by class name.
+ */
+public interface ABDClientDriver extends AutoCloseable {
+    /** called once before any operation with the comma separated list of servers. */
+    void connect(String serverPorts);
+
+    /** @return true if value was written to addr. */
+    boolean write(long addr, long value);
+
+    /** @return the register at addr, or null if the read failed or addr has never been written. */
+    Register read(long addr);
+
+    @Override
+    default void close() {
+    }
+}
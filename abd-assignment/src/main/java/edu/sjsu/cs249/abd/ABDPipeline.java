@@ -0,0 +1,158 @@
+package edu.sjsu.cs249.abd;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import edu.sjsu.cs249.abd.Grpc.PipelineRequest;
+import edu.sjsu.cs249.abd.Grpc.PipelineResponse;
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The client end of a pipeline stream to one replica. Requests are tagged with an id and matched with their
+ * responses in whatever order they arrive. The stream is opened on first use and reopened after it fails.
+ * <p>
+ * At most {@link ABDServer#PIPELINE_WINDOW} requests are on the stream unanswered, the most the server takes,
+ * and only while the stream is ready. The rest wait here rather than in grpc's buffers; callers never block, since
+ * they may be running on a grpc callback thread, and a waiting request still fails at its timeout.
+ */
+class ABDPipeline {
+    private final ABDServiceGrpc.ABDServiceStub stub;
+    private final ScheduledExecutorService timer;
+    private final AtomicLong nextId = new AtomicLong();
+    /* guarded by this */
+    private Stream stream;
+
+    ABDPipeline(Channel channel, ScheduledExecutorService timer) {
+        stub = ABDServiceGrpc.newStub(channel);
+        this.timer = timer;
+    }
+
+    /**
+     * send a request down the stream.
+     * @param extract pulls the result out of the response.
+     * @return the result. fails if there is no response within the timeout; cancelling it forgets the request.
+     */
+    <R> ListenableFuture<R> call(PipelineRequest.Builder request, Function<PipelineResponse, R> extract, long timeoutNanos) {
+        var response = SettableFuture.<PipelineResponse>create();
+        Stream s;
+        synchronized (this) {
+            if (stream == null) stream = new Stream();
+            s = stream;
+        }
+        s.send(request.setId(nextId.incrementAndGet()).build(), response);
+        var result = Futures.transform(response, extract::apply, MoreExecutors.directExecutor());
+        return Futures.withTimeout(result, timeoutNanos, TimeUnit.NANOSECONDS, timer);
+    }
+
+    private synchronized void closed(Stream s) {
+        if (stream == s) stream = null;
+    }
+
+    private static final class Call {
+        final PipelineRequest request;
+        final SettableFuture<PipelineResponse> response;
+        boolean sent;
+
+        Call(PipelineRequest request, SettableFuture<PipelineResponse> response) {
+            this.request = request;
+            this.response = response;
+        }
+    }
+
+    /* one stream and the calls made on it, so a failed stream only fails its own calls */
+    private class Stream implements ClientResponseObserver<PipelineRequest, PipelineResponse> {
+        /* guarded by this */
+        private final HashMap<Long, Call> pending = new HashMap<>();
+        private final ArrayDeque<Call> unsent = new ArrayDeque<>();
+        private ClientCallStreamObserver<PipelineRequest> requests;
+        private int inFlight;
+        private boolean failed;
+
+        Stream() {
+            stub.pipeline(this);
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<PipelineRequest> requests) {
+            synchronized (this) {
+                this.requests = requests;
+            }
+            requests.setOnReadyHandler(this::drain);
+        }
+
+        void send(PipelineRequest request, SettableFuture<PipelineResponse> response) {
+            var call = new Call(request, response);
+            boolean queued;
+            synchronized (this) {
+                queued = !failed;
+                if (queued) {
+                    pending.put(request.getId(), call);
+                    unsent.add(call);
+                }
+            }
+            if (!queued) {
+                response.setException(Status.UNAVAILABLE.withDescription("pipeline closed").asRuntimeException());
+                return;
+            }
+            /* answered, timed out or cancelled, the call gives back its place in the window */
+            response.addListener(() -> finished(call), MoreExecutors.directExecutor());
+            drain();
+        }
+
+        private synchronized void finished(Call call) {
+            pending.remove(call.request.getId());
+            if (call.sent) {
+                inFlight--;
+                drain();
+            }
+        }
+
+        private synchronized void drain() {
+            while (!failed && inFlight < ABDServer.PIPELINE_WINDOW && !unsent.isEmpty() && requests.isReady()) {
+                var call = unsent.poll();
+                if (call.response.isDone()) continue;
+                call.sent = true;
+                inFlight++;
+                requests.onNext(call.request);
+            }
+        }
+
+        @Override
+        public void onNext(PipelineResponse rsp) {
+            Call call;
+            synchronized (this) {
+                call = pending.get(rsp.getId());
+            }
+            if (call != null) call.response.set(rsp);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            ArrayList<Call> calls;
+            synchronized (this) {
+                failed = true;
+                calls = new ArrayList<>(pending.values());
+                unsent.clear();
+            }
+            closed(this);
+            calls.forEach(c -> c.response.setException(t));
+        }
+
+        @Override
+        public void onCompleted() {
+            onError(Status.UNAVAILABLE.withDescription("pipeline closed by server").asRuntimeException());
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package edu.sjsu.cs249.abd;
+
+import edu.sjsu.cs249.abd.Grpc.EnableRequest;
+import edu.sjsu.cs249.abd.Grpc.EnableResponse;
+import edu.sjsu.cs249.abd.Grpc.ExitRequest;
+import edu.sjsu.cs249.abd.Grpc.ExitResponse;
+import edu.sjsu.cs249.abd.Grpc.NameRequest;
+import edu.sjsu.cs249.abd.Grpc.NameResponse;
+import edu.sjsu.cs249.abd.Grpc.PipelineRequest;
+import edu.sjsu.cs249.abd.Grpc.PipelineResponse;
+import edu.sjsu.cs249.abd.Grpc.Read1BatchRequest;
+import edu.sjsu.cs249.abd.Grpc.Read1BatchResponse;
+import edu.sjsu.cs249.abd.Grpc.Read1Request;
+import edu.sjsu.cs249.abd.Grpc.Read1Response;
+import edu.sjsu.cs249.abd.Grpc.Read2BatchRequest;
+import edu.sjsu.cs249.abd.Grpc.Read2BatchResponse;
+import edu.sjsu.cs249.abd.Grpc.Read2Request;
+import edu.sjsu.cs249.abd.Grpc.Read2Response;
+import edu.sjsu.cs249.abd.Grpc.ScanRequest;
+import edu.sjsu.cs249.abd.Grpc.ScanResponse;
+import edu.sjsu.cs249.abd.Grpc.StatsRequest;
+import edu.sjsu.cs249.abd.Grpc.StatsResponse;
+import edu.sjsu.cs249.abd.Grpc.WriteBatchRequest;
+import edu.sjsu.cs249.abd.Grpc.WriteBatchResponse;
+import edu.sjsu.cs249.abd.Grpc.WriteRequest;
+import edu.sjsu.cs249.abd.Grpc.WriteResponse;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.function.IntToLongFunction;
+
+import static edu.sjsu.cs249.abd.CliUtil.debug;
+
+/**
+ * A replica of the ABD registers. Requests of a disabled type are silently dropped: the caller never gets
+ * a response and has to rely on its deadline.
+ */
+public class ABDServer extends ABDServiceGrpc.ABDServiceImplBase {
+    /* most requests of one pipeline stream accepted and not yet answered. ABDPipeline sends no more than this */
+    static final int PIPELINE_WINDOW = 256;
+    private final String name;
+    private final RegisterStore store;
+    private final Executor executor;
+    private final ServerMetrics metrics;
+    private final Runnable onExit;
+    private volatile boolean read1Enabled = true;
+    private volatile boolean read2Enabled = true;
+    private volatile boolean writeEnabled = true;
+
+    /**
+     * @param name reported by the name RPC.
+     * @param store holds the registers.
+     * @param executor runs the requests that arrive on pipeline streams.
+     * @param metrics reported by the stats RPC. it should also be intercepting the calls to this service.
+     * @param onExit run after responding to an exit request.
+     */
+    public ABDServer(String name, RegisterStore store, Executor executor, ServerMetrics metrics, Runnable onExit) {
+        this.name = name;
+        this.store = store;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.onExit = onExit;
+    }
+
+    @Override
+    public void name(NameRequest request, StreamObserver<NameResponse> responseObserver) {
+        responseObserver.onNext(NameResponse.newBuilder().setName(name).build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void enableRequests(EnableRequest request, StreamObserver<EnableResponse> responseObserver) {
+        debug("enable read1 {0} read2 {1} write {2}", request.getRead1(), request.getRead2(), request.getWrite());
+        read1Enabled = request.getRead1();
+        read2Enabled = request.getRead2();
+        writeEnabled = request.getWrite();
+        responseObserver.onNext(EnableResponse.getDefaultInstance());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void read1(Read1Request request, StreamObserver<Read1Response> responseObserver) {
+        if (!read1Enabled) {
+            debug("dropping read1 {0}", request.getAddr());
+            ServerMetrics.recordDrop();
+            return;
+        }
+        responseObserver.onNext(read1(request.getAddr()));
+        responseObserver.onCompleted();
+    }
+
+    private Read1Response read1(long addr) {
+        var register = store.read(addr);
+        return register == null
+                ? Read1Response.newBuilder().setRc(1).build()
+                : Read1Response.newBuilder().setLabel(register.label()).setValue(register.value()).build();
+    }
+
+    @Override
+    public void read2(Read2Request request, StreamObserver<Read2Response> responseObserver) {
+        if (!read2Enabled) {
+            debug("dropping read2 {0}", request.getAddr());
+            ServerMetrics.recordDrop();
+            return;
+        }
+        store.update(request.getAddr(), request.getLabel(), request.getValue());
+        responseObserver.onNext(Read2Response.getDefaultInstance());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void write(WriteRequest request, StreamObserver<WriteResponse> responseObserver) {
+        if (!writeEnabled) {
+            debug("dropping write {0}", request.getAddr());
+            ServerMetrics.recordDrop();
+            return;
+        }
+        responseObserver.onNext(WriteResponse.newBuilder().setRc(write(request.getAddr(), request.getLabel(), request.getValue())).build());
+        responseObserver.onCompleted();
+    }
+
+    /* @return the rc of a write */
+    private int write(long addr, long label, long value) {
+        return store.update(addr, label, value) ? 0 : rejectedRc(addr, label, value);
+    }
+
+    /*
+     * @return the rc of a write the store did not apply: 1 if addr holds a larger label, 2 if it holds the same
+     * label with another value. the same label and value is a repeat of a write already applied, a success.
+     */
+    private int rejectedRc(long addr, long label, long value) {
+        var register = store.read(addr);
+        if (register == null) return 0;
+        var order = Long.compareUnsigned(register.label(), label);
+        if (order > 0) return 1;
+        return order == 0 && register.value() != value ? 2 : 0;
+    }
+
+    @Override
+    public void read1Batch(Read1BatchRequest request, StreamObserver<Read1BatchResponse> responseObserver) {
+        if (!read1Enabled) {
+            debug("dropping read1 batch of {0}", request.getAddrCount());
+            ServerMetrics.recordDrop();
+            return;
+        }
+        var count = request.getAddrCount();
+        var rsp = Read1BatchResponse.newBuilder();
+        for (int i = 0; i < count; i++) {
+            var register = store.read(request.getAddr(i));
+            if (register == null) {
+                rsp.addRc(1).addLabel(0).addValue(0);
+            } else {
+                rsp.addRc(0).addLabel(register.label()).addValue(register.value());
+            }
+        }
+        responseObserver.onNext(rsp.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void read2Batch(Read2BatchRequest request, StreamObserver<Read2BatchResponse> responseObserver) {
+        if (!read2Enabled) {
+            debug("dropping read2 batch of {0}", request.getAddrCount());
+            ServerMetrics.recordDrop();
+            return;
+        }
+        if (!sameLengths(responseObserver, request.getAddrCount(), request.getLabelCount(), request.getValueCount())) return;
+        updateAll(request.getAddrCount(), request::getAddr, request::getLabel, request::getValue);
+        responseObserver.onNext(Read2BatchResponse.getDefaultInstance());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void writeBatch(WriteBatchRequest request, StreamObserver<WriteBatchResponse> responseObserver) {
+        if (!writeEnabled) {
+            debug("dropping write batch of {0}", request.getAddrCount());
+            ServerMetrics.recordDrop();
+            return;
+        }
+        if (!sameLengths(responseObserver, request.getAddrCount(), request.getLabelCount(), request.getValueCount())) return;
+        var changed = updateAll(request.getAddrCount(), request::getAddr, request::getLabel, request::getValue);
+        var rsp = WriteBatchResponse.newBuilder();
+        for (int i = 0; i < changed.length; i++) {
+            rsp.addRc(changed[i] ? 0 : rejectedRc(request.getAddr(i), request.getLabel(i), request.getValue(i)));
+        }
+        responseObserver.onNext(rsp.build());
+        responseObserver.onCompleted();
+    }
+
+    /* @return true if a batch has a label and a value for every address, otherwise fails the call and returns false */
+    private static boolean sameLengths(StreamObserver<?> responseObserver, int addrs, int labels, int values) {
+        if (labels == addrs && values == addrs) return true;
+        responseObserver.onError(Status.INVALID_ARGUMENT
+                .withDescription(addrs + " addrs with " + labels + " labels and " + values + " values")
+                .asRuntimeException());
+        return false;
+    }
+
+    /* @return for each register whether it was changed */
+    private boolean[] updateAll(int count, IntToLongFunction addr, IntToLongFunction label, IntToLongFunction value) {
+        if (count == 0) return new boolean[0];
+        var addrs = new long[count];
+        var labels = new long[count];
+        var values = new long[count];
+        for (int i = 0; i < count; i++) {
+            addrs[i] = addr.applyAsLong(i);
+            labels[i] = label.applyAsLong(i);
+            values[i] = value.applyAsLong(i);
+        }
+        return store.updateAll(count, addrs, labels, values);
+    }
+
+    @Override
+    public StreamObserver<PipelineRequest> pipeline(StreamObserver<PipelineResponse> responseObserver) {
+        return new Pipeline((ServerCallStreamObserver<PipelineResponse>) responseObserver);
+    }
+
+    /**
+     * runs each request of a pipeline stream on the executor and answers as soon as it finishes and the client
+     * can take it. at most PIPELINE_WINDOW requests of a stream are accepted and not yet answered: another is
+     * only asked of the transport once a response is sent, so a client that floods the stream or stops reading
+     * stalls its own stream rather than filling the executor and the heap. the response stream is completed once
+     * the client has half closed and every accepted request has been answered.
+     */
+    private class Pipeline implements StreamObserver<PipelineRequest> {
+        private final ServerCallStreamObserver<PipelineResponse> responses;
+        /* guarded by this */
+        private final ArrayDeque<PipelineResponse> unsent = new ArrayDeque<>();
+        private int outstanding;
+        private boolean halfClosed;
+        private boolean done;
+
+        Pipeline(ServerCallStreamObserver<PipelineResponse> responses) {
+            this.responses = responses;
+            responses.disableAutoRequest();
+            responses.setOnReadyHandler(this::sendUnsent);
+            responses.request(PIPELINE_WINDOW);
+        }
+
+        @Override
+        public void onNext(PipelineRequest request) {
+            var enabled = switch (request.getOpCase()) {
+                case READ1 -> read1Enabled;
+                case READ2 -> read2Enabled;
+                case WRITE -> writeEnabled;
+                case OP_NOT_SET -> false;
+            };
+            if (!enabled) {
+                debug("dropping pipelined {0} {1}", request.getOpCase(), request.getId());
+                ServerMetrics.recordDrop();
+                responses.request(1);
+                return;
+            }
+            synchronized (this) {
+                outstanding++;
+            }
+            executor.execute(() -> {
+                PipelineResponse rsp;
+                try {
+                    rsp = handle(request);
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        if (!done) {
+                            done = true;
+                            unsent.clear();
+                            responses.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+                        }
+                    }
+                    return;
+                }
+                synchronized (this) {
+                    unsent.add(rsp);
+                    sendUnsent();
+                }
+            });
+        }
+
+        /* send what the client can take, and ask for as many requests as were answered */
+        private synchronized void sendUnsent() {
+            var sent = 0;
+            while (!done && !unsent.isEmpty() && responses.isReady()) {
+                responses.onNext(unsent.poll());
+                sent++;
+            }
+            if (sent == 0) return;
+            outstanding -= sent;
+            if (!halfClosed) responses.request(sent);
+            completeIfIdle();
+        }
+
+        private PipelineResponse handle(PipelineRequest request) {
+            var rsp = PipelineResponse.newBuilder().setId(request.getId());
+            switch (request.getOpCase()) {
+                case READ1 -> rsp.setRead1(read1(request.getRead1().getAddr()));
+                case READ2 -> {
+                    var read2 = request.getRead2();
+                    store.update(read2.getAddr(), read2.getLabel(), read2.getValue());
+                    rsp.setRead2(Read2Response.getDefaultInstance());
+                }
+                case WRITE -> {
+                    var write = request.getWrite();
+                    rsp.setWrite(WriteResponse.newBuilder().setRc(write(write.getAddr(), write.getLabel(), write.getValue())));
+                }
+                case OP_NOT_SET -> throw new IllegalStateException("pipeline request without an operation");
+            }
+            return rsp.build();
+        }
+
+        private void completeIfIdle() {
+            if (halfClosed && outstanding == 0 && !done) {
+                done = true;
+                responses.onCompleted();
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            done = true;
+            unsent.clear();
+        }
+
+        @Override
+        public synchronized void onCompleted() {
+            halfClosed = true;
+            completeIfIdle();
+        }
+    }
+
+    /*
+     * the store is copied one part at a time, and only when the client has read everything copied so far, so a
+     * scan holds at most one part and a batch in memory. streaming from inside forEach would instead hold a
+     * stripe lock for as long as the client takes to read.
+     */
+    @Override
+    public void scan(ScanRequest request, StreamObserver<ScanResponse> responseObserver) {
+        var batchSize = request.getBatchSize() > 0 ? Math.min(request.getBatchSize(), 65536) : 4096;
+        var parts = store.parts();
+        debug("scanning {0} parts", parts);
+        var call = (ServerCallStreamObserver<ScanResponse>) responseObserver;
+        call.setOnReadyHandler(new Runnable() {
+            final ArrayDeque<ScanResponse> responses = new ArrayDeque<>();
+            final ScanResponse.Builder batch = ScanResponse.newBuilder();
+            int part;
+            boolean completed;
+
+            @Override
+            public void run() {
+                while (call.isReady() && !completed) {
+                    if (!responses.isEmpty()) {
+                        call.onNext(responses.poll());
+                    } else if (part < parts) {
+                        store.forEach(part++, (addr, label, value) -> {
+                            batch.addAddr(addr).addLabel(label).addValue(value);
+                            if (batch.getAddrCount() == batchSize) {
+                                responses.add(batch.build());
+                                batch.clear();
+                            }
+                        });
+                    } else if (batch.getAddrCount() > 0) {
+                        responses.add(batch.build());
+                        batch.clear();
+                    } else {
+                        completed = true;
+                        call.onCompleted();
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stats(StatsRequest request, StreamObserver<StatsResponse> responseObserver) {
+        responseObserver.onNext(metrics.stats());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void exit(ExitRequest request, StreamObserver<ExitResponse> responseObserver) {
+        responseObserver.onNext(ExitResponse.getDefaultInstance());
+        responseObserver.onCompleted();
+        onExit.run();
+    }
+}
@@ -0,0 +1,43 @@
+package edu.sjsu.cs249.abd;
+
+import edu.sjsu.cs249.abd.RegisterStore.Register;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+import static edu.sjsu.cs249.abd.CliUtil.debug;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * drives {@link ABDClient}, the same client the read and write subcommands use. channels come from the shared
+ * {@link ChannelPool}, so the driver reuses connections the test harness already has open.
+ */
+public class BuiltinClientDriver implements ABDClientDriver {
+    private ABDClient client;
+
+    @Override
+    public void connect(String serverPorts) {
+        client = new ABDClient(ChannelPool.shared().get(Arrays.asList(serverPorts.split(","))), 2, SECONDS);
+    }
+
+    @Override
+    public boolean write(long addr, long value) {
+        try {
+            client.write(addr, value).get();
+            return true;
+        } catch (ExecutionException | InterruptedException e) {
+            debug("write failed: {0}", e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public Register read(long addr) {
+        try {
+            return client.read(addr).get();
+        } catch (ExecutionException | InterruptedException e) {
+            debug("read failed: {0}", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package edu.sjsu.cs249.abd;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.MethodDescriptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Channels to servers, built once per target and reused by everything that talks to that target. Each target
+ * can be spread over several subchannels, each its own connection, with calls handed out round robin. Idle
+ * connections are kept open, so a call after a quiet spell does not pay for a new connection. Keepalive pings
+ * are only sent while calls are in progress, and no more often than a default grpc server allows, since a
+ * server that sees pings it does not permit closes the connection with too_many_pings.
+ * <p>
+ * Vendored: the here-assignment client has an identical copy apart from the package, as the assignments share
+ * no build. Keep the two the same.
+ */
+public class ChannelPool implements AutoCloseable {
+    private static ChannelPool shared;
+    private final int subchannels;
+    private final long keepAliveSeconds;
+    private final ConcurrentHashMap<String, Spread> channels = new ConcurrentHashMap<>();
+
+    /** @return the pool for this process. it is closed when the process exits. */
+    public static synchronized ChannelPool shared() {
+        if (shared == null) {
+            shared = new ChannelPool(1, 300);
+            Runtime.getRuntime().addShutdownHook(new Thread(shared::close));
+        }
+        return shared;
+    }
+
+    /**
+     * @param subchannels connections opened to each target.
+     * @param keepAliveSeconds seconds between keepalive pings on a connection with calls in progress. grpc servers
+     *                         refuse pings more often than every 300 seconds unless told otherwise.
+     */
+    public ChannelPool(int subchannels, long keepAliveSeconds) {
+        this.subchannels = Math.max(1, subchannels);
+        this.keepAliveSeconds = keepAliveSeconds;
+    }
+
+    /** @return the channel to target, opening it if this is the first time it has been asked for. */
+    public Channel get(String target) {
+        return channels.computeIfAbsent(target, this::open);
+    }
+
+    /** @return the channel to each of targets, in order. */
+    public List<Channel> get(List<String> targets) {
+        var list = new ArrayList<Channel>(targets.size());
+        for (var target : targets) {
+            list.add(get(target));
+        }
+        return list;
+    }
+
+    private Spread open(String target) {
+        var spread = new ManagedChannel[subchannels];
+        for (int i = 0; i < subchannels; i++) {
+            spread[i] = ManagedChannelBuilder.forTarget(target).usePlaintext()
+                    .keepAliveTime(keepAliveSeconds, TimeUnit.SECONDS)
+                    /* anything over 30 days turns idle mode off */
+                    .idleTimeout(31, TimeUnit.DAYS)
+                    .build();
+        }
+        return new Spread(spread);
+    }
+
+    /** finish the calls in progress, giving them a couple of seconds, and close every connection. */
+    @Override
+    public void close() {
+        var closing = new ArrayList<>(channels.values());
+        channels.clear();
+        for (var spread : closing) {
+            for (var channel : spread.channels) {
+                channel.shutdown();
+            }
+        }
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        for (var spread : closing) {
+            for (var channel : spread.channels) {
+                try {
+                    if (!channel.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) channel.shutdownNow();
+                } catch (InterruptedException e) {
+                    channel.shutdownNow();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /* one target over several connections */
+    private static final class Spread extends Channel {
+        final ManagedChannel[] channels;
+        final AtomicInteger next = new AtomicInteger();
+
+        Spread(ManagedChannel[] channels) {
+            this.channels = channels;
+        }
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions options) {
+            var channel = channels.length == 1 ? channels[0] : channels[Math.floorMod(next.getAndIncrement(), channels.length)];
+            return channel.newCall(method, options);
+        }
+
+        @Override
+        public String authority() {
+            return channels[0].authority();
+        }
+    }
+}
@@ -2,8 +2,16 @@ package edu.sjsu.cs249.abd;
 
 import picocli.CommandLine;
 
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
 import java.text.MessageFormat;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class CliUtil extends CommandLine {
     static private boolean debugEnabled;
@@ -11,33 +19,80 @@ public class CliUtil extends CommandLine {
         debugEnabled = enable;
     }
 
+    static public boolean debugEnabled() {
+        return debugEnabled;
+    }
+
     static private boolean timestampEnabled;
     static public void enableTimestamp(boolean enabled) {
         timestampEnabled = enabled;
     }
 
-    static private CliUtil cli;
+    /* without a terminal there is nobody to see colors or need lines wrapped, so messages are written as is */
+    static private boolean plain = !Help.Ansi.AUTO.enabled();
+    static public void enablePlain(boolean enabled) {
+        plain = enabled;
+    }
+
+    /* messages go to stderr when stdout carries a command's result, such as a report other programs read */
+    static private boolean toStderr;
+    static public void enableStderr(boolean enabled) {
+        toStderr = enabled;
+    }
+
+    static private final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy.MM.dd.HH.mm.ss").withZone(ZoneId.systemDefault());
+    /* timestamps only change once a second, so the last one is formatted once and reused */
+    private record Stamp(long second, String text) {}
+    static private volatile Stamp lastStamp = new Stamp(Long.MIN_VALUE, "");
+
+    static private int screenWidth = 80;
 
     public CliUtil(Object command) {
         super(command);
-        cli = this;
+        screenWidth = getCommandSpec().usageMessage().width();
+    }
+
+    /**
+     * buffer standard out and flush it every flushMillis, at exit and after every message above debug. debug
+     * messages and everything else printed to System.out share the buffer, so they stay in order.
+     */
+    static public void bufferOutput(long flushMillis) {
+        var out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        System.setOut(out);
+        var flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "stdout-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(out::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(out::flush));
     }
 
-    static private int getScreenWidth() {
-        return cli.getCommandSpec().usageMessage().width();
+    static private String timestamp() {
+        var now = Instant.now();
+        var stamp = lastStamp;
+        if (stamp.second != now.getEpochSecond()) {
+            stamp = new Stamp(now.getEpochSecond(), TIMESTAMP.format(now));
+            lastStamp = stamp;
+        }
+        return stamp.text;
     }
 
-    static private void coloredOut(String color, String format, Object... args) {
+    static private void coloredOut(String color, boolean flush, String format, Object... args) {
         var rawMessage = MessageFormat.format(format, args);
-        var stylizedMessage = CommandLine.Help.Ansi.AUTO.string(MessageFormat.format("{0} @|{1} {2}|@",
-                timestampEnabled ? new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss").format(new java.util.Date()) : "",
-                color, rawMessage));
-        var line = new Help.Column(getScreenWidth(), 0, Help.Column.Overflow.WRAP);
-        var txtTable = Help.TextTable.forColumns(Help.defaultColorScheme(Help.Ansi.AUTO), line);
-        txtTable.indentWrappedLines = 0;
-        txtTable.addRowValues(stylizedMessage);
-        System.out.print(txtTable);
-        System.out.flush();
+        var stamp = timestampEnabled ? timestamp() : "";
+        var out = toStderr ? System.err : System.out;
+        if (plain) {
+            out.print(stamp + " " + rawMessage + System.lineSeparator());
+        } else {
+            var stylizedMessage = Help.Ansi.ON.string(stamp + " @|" + color + " " + rawMessage + "|@");
+            var line = new Help.Column(screenWidth, 0, Help.Column.Overflow.WRAP);
+            var txtTable = Help.TextTable.forColumns(Help.defaultColorScheme(Help.Ansi.ON), line);
+            txtTable.indentWrappedLines = 0;
+            txtTable.addRowValues(stylizedMessage);
+            out.print(txtTable);
+        }
+        if (flush) out.flush();
     }
 
     static public void fatal(String format, Object... args) {
@@ -46,7 +101,7 @@ public class CliUtil extends CommandLine {
     }
 
     static public void error(String format, Object... args) {
-        coloredOut("red", format, args);
+        coloredOut("red", true, format, args);
     }
 
     static public void simpleError(String err) {
@@ -54,15 +109,15 @@ public class CliUtil extends CommandLine {
     }
 
     static public void warn(String format, Object... args) {
-        coloredOut("yellow", format, args);
+        coloredOut("yellow", true, format, args);
     }
 
     static public void info(String format, Object... args) {
-        coloredOut("blue", format, args);
+        coloredOut("blue", true, format, args);
     }
 
     static public void debug(String format, Object... args) {
         if (!debugEnabled) return;
-        coloredOut("magenta", format, args);
+        coloredOut("magenta", false, format, args);
     }
 }
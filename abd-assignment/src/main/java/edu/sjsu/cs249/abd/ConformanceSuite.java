@@ -0,0 +1,336 @@
+package edu.sjsu.cs249.abd;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import edu.sjsu.cs249.abd.ABDServiceGrpc.ABDServiceFutureStub;
+import edu.sjsu.cs249.abd.Grpc.EnableRequest;
+import edu.sjsu.cs249.abd.Grpc.NameRequest;
+import edu.sjsu.cs249.abd.Grpc.Read1Request;
+import edu.sjsu.cs249.abd.Grpc.Read1Response;
+import edu.sjsu.cs249.abd.Grpc.Read2Request;
+import edu.sjsu.cs249.abd.Grpc.WriteRequest;
+import edu.sjsu.cs249.abd.Main.ClientCli.ClientRunner;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static edu.sjsu.cs249.abd.CliUtil.debug;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * The ABD conformance checks against one list of servers. A check that fails records why and how long it took
+ * rather than exiting, and the checks after it still run. Every address a check touches is offset by firstAddr,
+ * so suites for different server lists can run at the same time without reading each other's registers.
+ * <p>
+ * The checks turn requests on and off with enableRequests, which is state of the whole server, so two suites
+ * must not run against the same server at once.
+ */
+class ConformanceSuite {
+    record CheckResult(String name, boolean passed, long nanos, String message) {}
+
+    interface Listener {
+        default void started(String check) {}
+
+        default void finished(CheckResult result) {}
+    }
+
+    private static class CheckFailed extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        CheckFailed(String message) {
+            super(message);
+        }
+    }
+
+    private final List<String> servers;
+    private final List<ABDServiceFutureStub> stubs;
+    private final List<String> names;
+    private final long firstAddr;
+    private final long deadlineMillis;
+    private final Listener listener;
+    private final List<CheckResult> results = new ArrayList<>();
+    private final BitSet bottomMajority = new BitSet();
+    private final BitSet bottomMinority = new BitSet();
+    private final BitSet topMajority = new BitSet();
+    private final BitSet topMinority = new BitSet();
+    private final BitSet innerMajority = new BitSet();
+    private final BitSet all = BitSet.valueOf(new long[]{0xffffffffffffffffL});
+
+    /**
+     * @param firstAddr added to every address the checks use.
+     * @param deadlineMillis deadline of each call to a server. servers that drop a request cost this much.
+     */
+    ConformanceSuite(List<String> servers, long firstAddr, long deadlineMillis, Listener listener) {
+        this.servers = List.copyOf(servers);
+        this.firstAddr = firstAddr;
+        this.deadlineMillis = deadlineMillis;
+        this.listener = listener;
+        stubs = ChannelPool.shared().get(servers).stream().map(ABDServiceGrpc::newFutureStub).toList();
+        var nameRequest = NameRequest.newBuilder().build();
+        var responses = callAll(s -> s.name(nameRequest));
+        names = IntStream.range(0, stubs.size())
+                .mapToObj(i -> responses.get(i) == null ? "none" : responses.get(i).getName()).toList();
+
+        var size = stubs.size();
+        var majority = size / 2 + 1;
+        bottomMajority.set(0, majority);
+        bottomMinority.set(0, majority - 1);
+        topMajority.set(size - majority, size);
+        topMinority.set(size - majority + 1, size);
+        var innerStart = (size - majority) / 2;
+        innerMajority.set(innerStart, innerStart + majority);
+    }
+
+    List<String> servers() {
+        return servers;
+    }
+
+    /** @return the result of every check run so far, in the order they ran. */
+    List<CheckResult> results() {
+        return results;
+    }
+
+    /** check that read1, read2 and write work and can each be turned off with enableRequests. */
+    void serverChecks() {
+        check("enable at " + (firstAddr + 1000), () -> checkEnable(firstAddr + 1000));
+        check("enable at " + (firstAddr + 1001), () -> checkEnable(firstAddr + 1001));
+        restore();
+    }
+
+    /** check that a client reads and writes correctly while servers drop some of its requests. */
+    void clientChecks(ClientRunner client) {
+        var a17 = firstAddr + 17;
+        var a18 = firstAddr + 18;
+        var a117 = firstAddr + 117;
+        var a118 = firstAddr + 118;
+        var a217 = firstAddr + 217;
+        var a218 = firstAddr + 218;
+        check("basic read and write", () -> {
+            enableWrites(all);
+            runClient(client, "write " + a17 + " 1717", "success");
+            runClient(client, "read " + a17, "1717(" + maxLabel(a17) + ")");
+            runClient(client, "read " + a18, "failed");
+        });
+        check("minority write failures", () -> {
+            enableWrites(topMajority);
+            runClient(client, "write " + a117 + " 1717", "success");
+            runClient(client, "read " + a117, "1717(" + maxLabel(a117) + ")");
+            runClient(client, "read " + a118, "failed");
+            runClient(client, "read " + a118, "failed");
+        });
+        check("majority write failures", () -> {
+            enableWrites(topMinority);
+            runClient(client, "write " + a217 + " 2717", "failure");
+        });
+        check("minority read failures", () -> {
+            // note, this will force the client to see some of the failed write
+            enableRead(topMajority, bottomMajority);
+            runClient(client, "read " + a217, "2717(" + maxLabel(a217) + ")");
+        });
+        check("single write", () -> {
+            var writeReq = WriteRequest.newBuilder().setAddr(a218).setLabel(2).setValue(3).build();
+            try {
+                stubs.get(stubs.size() - 1).withDeadlineAfter(deadlineMillis, MILLISECONDS).write(writeReq).get();
+            } catch (ExecutionException | InterruptedException e) {
+                fail("write to {0} failed: {1}", pp(stubs.size() - 1), e.getMessage());
+            }
+            enableRead(topMajority, bottomMinority);
+            runClient(client, "read " + a218, "failed");
+            enableRead(bottomMajority, topMinority);
+            runClient(client, "read " + a218, "failed");
+            enableRead(bottomMajority, innerMajority);
+            runClient(client, "read " + a218, "3(2)");
+        });
+        restore();
+    }
+
+    private void check(String name, Runnable body) {
+        listener.started(name);
+        var start = System.nanoTime();
+        String message = null;
+        try {
+            body.run();
+        } catch (CheckFailed e) {
+            message = e.getMessage();
+        } catch (RuntimeException e) {
+            message = e.toString();
+        }
+        var result = new CheckResult(name, message == null, System.nanoTime() - start, message);
+        /* a passing check ends with every request enabled; a failed one may not, and the next check would inherit that */
+        if (message != null) restore();
+        results.add(result);
+        listener.finished(result);
+    }
+
+    private static void fail(String format, Object... args) {
+        throw new CheckFailed(MessageFormat.format(format, args));
+    }
+
+    /*
+     * leave every server taking every request, whatever state a check left it in. the old commands stopped at the
+     * first failure, but the suite keeps going, and checks of another list that shares a server come next.
+     */
+    private void restore() {
+        var enable = EnableRequest.newBuilder().setWrite(true).setRead1(true).setRead2(true).build();
+        callAll(s -> s.enableRequests(enable));
+    }
+
+    /* @return the response of each server, or null for servers that failed or missed the deadline */
+    private <R> List<R> callAll(Function<ABDServiceFutureStub, ListenableFuture<R>> call) {
+        var futures = stubs.stream().map(s -> call.apply(s.withDeadlineAfter(deadlineMillis, MILLISECONDS))).toList();
+        var responses = new ArrayList<R>(futures.size());
+        for (var future : futures) {
+            R response = null;
+            try {
+                response = future.get();
+            } catch (ExecutionException e) {
+                debug("call failed: {0}", e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    private String pp(int server) {
+        return servers.get(server) + "(" + names.get(server) + ")";
+    }
+
+    /* @return the servers whose response is null if answered is false, or not null if it is true */
+    private String pp(List<?> responses, boolean answered) {
+        return IntStream.range(0, responses.size()).filter(i -> (responses.get(i) != null) == answered)
+                .mapToObj(this::pp).collect(Collectors.joining(","));
+    }
+
+    private void checkEnable(long address) {
+        debug("===> seeeding initial write");
+        checkWrite(address, 10, 1, true);
+
+        debug("everything disabled but read1");
+        enableRequests(false, true, false);
+        checkWrite(address, 11, 1, false);
+        checkRead2(address, 12, 2, false);
+        checkRead1(address, 10, 1, true);
+
+        debug("everything disabled but read2");
+        enableRequests(false, false, true);
+        checkRead1(address, 10, 1, false);
+        checkRead2(address, 13, 2, true);
+        checkWrite(address, 14, 4, false);
+
+        debug("everything enabled");
+        enableRequests(true, true, true);
+        checkRead1(address, 13, 2, true);
+        checkRead2(address, 15, 5, true);
+        checkRead1(address, 15, 5, true);
+        checkWrite(address, 16, 6, true);
+        checkRead1(address, 16, 6, true);
+    }
+
+    private void checkWrite(long address, long label, long value, boolean expectSuccess) {
+        debug("== checking write");
+        var wreq = WriteRequest.newBuilder().setAddr(address).setLabel(label).setValue(value).build();
+        var results = callAll(s -> s.write(wreq));
+        if (expectSuccess) {
+            if (results.contains(null)) fail("these processes do not support basic write: {0}", pp(results, false));
+        } else {
+            if (results.stream().anyMatch(r -> r != null)) fail("these processes ignored write disable: {0}", pp(results, true));
+        }
+    }
+
+    private void checkRead2(long address, long label, long value, boolean expectSuccess) {
+        debug("== checking read2");
+        var read2 = Read2Request.newBuilder().setAddr(address).setLabel(label).setValue(value).build();
+        var results = callAll(s -> s.read2(read2));
+        if (expectSuccess) {
+            if (results.contains(null)) fail("these processes do not support basic read2: {0}", pp(results, false));
+        } else {
+            if (results.stream().anyMatch(r -> r != null)) fail("these processes ignored read2 disable: {0}", pp(results, true));
+        }
+    }
+
+    private void checkRead1(long addr, long expectedLabel, long expectedValue, boolean expectResponse) {
+        debug("== checking read1");
+        var read1 = Read1Request.newBuilder().setAddr(addr).build();
+        var results = callAll(s -> s.read1(read1));
+        if (expectResponse) {
+            if (results.contains(null)) fail("these processes do not support read1 {0}", pp(results, false));
+            for (int i = 0; i < results.size(); i++) {
+                var read1rsp = results.get(i);
+                if (read1rsp.getRc() == 1 || read1rsp.getLabel() != expectedLabel || read1rsp.getValue() != expectedValue) {
+                    fail("{0} returned bad response: {1}", pp(i), read1rsp);
+                }
+            }
+        } else {
+            if (results.stream().anyMatch(r -> r != null)) fail("these processes did not disable read1 {0}", pp(results, true));
+        }
+    }
+
+    private void enableRequests(boolean write, boolean read1, boolean read2) {
+        debug("==enabling request");
+        var enable = EnableRequest.newBuilder().setWrite(write).setRead1(read1).setRead2(read2).build();
+        var results = callAll(s -> s.enableRequests(enable));
+        if (results.contains(null)) fail("these processes do not support enable: {0}", pp(results, false));
+    }
+
+    private void enableWrites(BitSet mask) {
+        debug("enabling writes on {0}", mask);
+        var results = new ArrayList<>();
+        for (int i = 0; i < stubs.size(); i++) {
+            var req = EnableRequest.newBuilder().setWrite(mask.get(i)).setRead1(true).setRead2(true).build();
+            results.add(call(i, s -> s.enableRequests(req)));
+        }
+        if (results.contains(null)) fail("failed enabling writes on {0}", pp(results, false));
+    }
+
+    private void enableRead(BitSet r1Mask, BitSet r2Mask) {
+        debug("enabling read on {0} {1}", r1Mask, r2Mask);
+        var results = new ArrayList<>();
+        for (int i = 0; i < stubs.size(); i++) {
+            var req = EnableRequest.newBuilder().setWrite(true).setRead1(r1Mask.get(i)).setRead2(r2Mask.get(i)).build();
+            results.add(call(i, s -> s.enableRequests(req)));
+        }
+        if (results.contains(null)) fail("failed enabling reads on {0}", pp(results, false));
+    }
+
+    /* @return the response of one server, or null if it failed */
+    private <R> R call(int server, Function<ABDServiceFutureStub, ListenableFuture<R>> call) {
+        try {
+            return call.apply(stubs.get(server).withDeadlineAfter(deadlineMillis, MILLISECONDS)).get();
+        } catch (ExecutionException e) {
+            debug("call to {0} failed: {1}", pp(server), e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /* @return the largest label any server answering read1 has for address */
+    private String maxLabel(long address) {
+        debug("== getMaxLabel");
+        var read1 = Read1Request.newBuilder().setAddr(address).build();
+        return callAll(s -> s.read1(read1)).stream().filter(r -> r != null && r.getRc() == 0)
+                .map(Read1Response::getLabel).max(Long::compareUnsigned).map(Long::toUnsignedString)
+                .orElseThrow(() -> new CheckFailed("no server has a label for " + address));
+    }
+
+    private static void runClient(ClientRunner client, String operation, String expectedResult) {
+        String result;
+        try {
+            result = client.run(operation).stripTrailing();
+        } catch (Exception e) {
+            fail("{0} failed: {1}", operation, e.getMessage());
+            return;
+        }
+        if (!result.endsWith(expectedResult)) {
+            var lastNl = result.indexOf('\n');
+            fail("expected {0} found {1}", expectedResult, result.substring(lastNl + 1));
+        }
+    }
+}
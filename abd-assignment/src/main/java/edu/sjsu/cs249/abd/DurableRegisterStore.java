@@ -0,0 +1,322 @@
+package edu.sjsu.cs249.abd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongFunction;
+import java.util.regex.Pattern;
+
+import static edu.sjsu.cs249.abd.CliUtil.error;
+import static edu.sjsu.cs249.abd.CliUtil.info;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A {@link RegisterStore} that survives restarts. Every update that changes a register is appended to a
+ * {@link RegisterLog} before it is visible to reads, and the whole table is periodically written to
+ * snapshot-SEQ.dat, after which log segments older than SEQ are deleted.
+ * <p>
+ * Recovery loads the newest snapshot and replays the log segments from SEQ on. Because an update only ever
+ * raises a label, replay is idempotent and order independent, so the snapshot does not need to stop writers
+ * while it walks the table. It only waits, around the log roll, for updates that are logged but not yet in
+ * the table: their records are in the segments the snapshot deletes, so they have to be in the walk.
+ */
+public class DurableRegisterStore implements RegisterStore, Closeable {
+    public enum SyncPolicy {
+        /** force the log before every update returns */
+        PER_OP,
+        /** updates wait for a force, but concurrent updates share one force */
+        BATCHED,
+        /** updates return right away and the log is forced on a timer */
+        INTERVAL
+    }
+
+    private static final long SNAPSHOT_MAGIC = 0xabd5_0a95_0000_0001L;
+    private static final int SNAPSHOT_HEADER = 16;
+    private static final int SNAPSHOT_RECORD = 24;
+    private static final int SEGMENT_SIZE = 64 << 20;
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot-(\\p{XDigit}{16})\\.dat");
+
+    private final Path dir;
+    private final RegisterStore store;
+    private final RegisterLog log;
+    private final SyncPolicy policy;
+    private final long snapshotEvery;
+    private final LongAdder sinceSnapshot = new LongAdder();
+    /* updates hold the read lock from append until the store has them, the snapshot the write lock to roll */
+    private final ReentrantReadWriteLock applying = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+        var t = new Thread(r, "register-log");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private DurableRegisterStore(Path dir, RegisterStore store, SyncPolicy policy, long snapshotEvery) throws IOException {
+        this.dir = dir;
+        this.store = store;
+        this.policy = policy;
+        this.snapshotEvery = snapshotEvery;
+        this.log = new RegisterLog(dir, SEGMENT_SIZE);
+    }
+
+    /**
+     * recover the registers kept in dir, creating it if needed.
+     * @param syncIntervalMillis how often to force the log with {@link SyncPolicy#INTERVAL}.
+     * @param snapshotEvery number of logged updates that triggers a new snapshot.
+     * @param storeFactory creates the in-memory store given the number of registers in the snapshot.
+     */
+    public static DurableRegisterStore open(Path dir, SyncPolicy policy, long syncIntervalMillis, long snapshotEvery,
+                                            LongFunction<RegisterStore> storeFactory) throws IOException {
+        Files.createDirectories(dir);
+        var start = System.nanoTime();
+        var snapshotSeq = latestSnapshot(dir);
+        RegisterStore store;
+        if (snapshotSeq < 0) {
+            store = storeFactory.apply(0);
+        } else {
+            try (var channel = FileChannel.open(dir.resolve(snapshotName(snapshotSeq)), READ)) {
+                var header = ByteBuffer.allocate(SNAPSHOT_HEADER);
+                channel.read(header, 0);
+                header.flip();
+                if (header.getLong() != SNAPSHOT_MAGIC) {
+                    throw new IOException(snapshotName(snapshotSeq) + " is not a register snapshot");
+                }
+                var count = header.getLong();
+                store = storeFactory.apply(count);
+                loadSnapshot(channel, count, store);
+            }
+        }
+        var replayed = RegisterLog.replay(dir, Math.max(snapshotSeq, 0), store::update);
+        info("recovered {0} registers from {1} in {2} ms ({3} log records)", store.size(), dir,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), replayed);
+
+        var durable = new DurableRegisterStore(dir, store, policy, snapshotEvery);
+        durable.sinceSnapshot.add(replayed);
+        if (policy == SyncPolicy.INTERVAL) {
+            durable.background.scheduleWithFixedDelay(durable.log::sync, syncIntervalMillis, syncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        durable.background.scheduleWithFixedDelay(durable::snapshotIfNeeded, 1, 1, TimeUnit.SECONDS);
+        return durable;
+    }
+
+    static String snapshotName(long seq) {
+        return String.format("snapshot-%016x.dat", seq);
+    }
+
+    private static long latestSnapshot(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.map(f -> SNAPSHOT_NAME.matcher(f.getFileName().toString()))
+                    .filter(m -> m.matches())
+                    .mapToLong(m -> Long.parseUnsignedLong(m.group(1), 16))
+                    .max().orElse(-1);
+        }
+    }
+
+    private static void loadSnapshot(FileChannel channel, long count, RegisterStore store) throws IOException {
+        var buffer = ByteBuffer.allocateDirect(SNAPSHOT_RECORD * 64 * 1024);
+        var position = (long) SNAPSHOT_HEADER;
+        var remaining = count;
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining * SNAPSHOT_RECORD));
+            while (buffer.hasRemaining()) {
+                var read = channel.read(buffer, position);
+                if (read < 0) throw new IOException("snapshot truncated with " + remaining + " registers missing");
+                position += read;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                store.update(buffer.getLong(), buffer.getLong(), buffer.getLong());
+                remaining--;
+            }
+        }
+    }
+
+    @Override
+    public Register read(long addr) {
+        return store.read(addr);
+    }
+
+    /*
+     * an update is logged, and with PER_OP and BATCHED forced, before the store shows it, so no reader can see a
+     * register that a crash would take back. two updates racing on one address may both be logged; replay keeps
+     * the larger label, as the store does.
+     */
+    @Override
+    public boolean update(long addr, long label, long value) {
+        if (!raises(addr, label)) return false;
+        applying.readLock().lock();
+        try {
+            var position = log.append(addr, label, value);
+            sinceSnapshot.increment();
+            awaitSync(position);
+            return store.update(addr, label, value);
+        } finally {
+            applying.readLock().unlock();
+        }
+    }
+
+    /* the batch shares a single log force */
+    @Override
+    public boolean[] updateAll(int count, long[] addrs, long[] labels, long[] values) {
+        var changed = new boolean[count];
+        var position = -1L;
+        applying.readLock().lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                if (!raises(addrs[i], labels[i])) continue;
+                changed[i] = true;
+                position = log.append(addrs[i], labels[i], values[i]);
+                sinceSnapshot.increment();
+            }
+            if (position < 0) return changed;
+            awaitSync(position);
+            for (int i = 0; i < count; i++) {
+                if (changed[i]) changed[i] = store.update(addrs[i], labels[i], values[i]);
+            }
+            return changed;
+        } finally {
+            applying.readLock().unlock();
+        }
+    }
+
+    /* @return true if label would change the register at addr */
+    private boolean raises(long addr, long label) {
+        var register = store.read(addr);
+        return register == null || Long.compareUnsigned(label, register.label()) > 0;
+    }
+
+    private void awaitSync(long position) {
+        switch (policy) {
+            case PER_OP -> log.sync();
+            case BATCHED -> {
+                try {
+                    log.awaitDurable(position);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted waiting for the register log", e);
+                }
+            }
+            case INTERVAL -> {
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        return store.size();
+    }
+
+    @Override
+    public void forEach(RegisterVisitor visitor) {
+        store.forEach(visitor);
+    }
+
+    @Override
+    public int parts() {
+        return store.parts();
+    }
+
+    @Override
+    public void forEach(int part, RegisterVisitor visitor) {
+        store.forEach(part, visitor);
+    }
+
+    private void snapshotIfNeeded() {
+        if (sinceSnapshot.sum() < snapshotEvery) return;
+        try {
+            snapshot();
+        } catch (IOException | UncheckedIOException e) {
+            error("snapshot of {0} failed: {1}", dir, e.getMessage());
+        }
+    }
+
+    /** write every register to a new snapshot and drop the log segments it covers. */
+    public synchronized void snapshot() throws IOException {
+        var start = System.nanoTime();
+        var logged = sinceSnapshot.sumThenReset();
+        // with no update between append and apply, every update in an older segment is in the store before the walk
+        long seq;
+        applying.writeLock().lock();
+        try {
+            seq = log.roll();
+        } finally {
+            applying.writeLock().unlock();
+        }
+        var name = snapshotName(seq);
+        var tmp = dir.resolve(name + ".tmp");
+        long count;
+        try (var channel = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            var writer = new SnapshotWriter(channel);
+            store.forEach(writer);
+            writer.drain();
+            count = writer.count;
+            channel.write(ByteBuffer.allocate(SNAPSHOT_HEADER).putLong(SNAPSHOT_MAGIC).putLong(count).flip(), 0);
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(name), ATOMIC_MOVE);
+        try (var dirChannel = FileChannel.open(dir, READ)) {
+            dirChannel.force(true);
+        } catch (IOException e) {
+            // not every platform can force a directory
+        }
+        try (var files = Files.list(dir)) {
+            for (var f : (Iterable<Path>) files::iterator) {
+                var m = SNAPSHOT_NAME.matcher(f.getFileName().toString());
+                if (m.matches() && Long.parseUnsignedLong(m.group(1), 16) < seq) Files.deleteIfExists(f);
+            }
+        }
+        log.truncateBefore(seq);
+        info("snapshot {0} of {1} registers covering {2} log records took {3} ms", name, count, logged,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    @Override
+    public void close() throws IOException {
+        background.shutdownNow();
+        log.close();
+    }
+
+    private static class SnapshotWriter implements RegisterVisitor {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(SNAPSHOT_RECORD * 64 * 1024);
+        private long position = SNAPSHOT_HEADER;
+        long count;
+
+        SnapshotWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void visit(long addr, long label, long value) {
+            if (buffer.remaining() < SNAPSHOT_RECORD) drain();
+            buffer.putLong(addr).putLong(label).putLong(value);
+            count++;
+        }
+
+        void drain() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package edu.sjsu.cs249.abd;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes ABD labels without asking the replicas for the current one. The high bits of a label are a microsecond
+ * timestamp and the low {@link #WRITER_BITS} bits the writer id, so labels of different writers never collide
+ * and the labels of one writer only grow, even if the wall clock steps back or many labels are made in the same
+ * microsecond.
+ * <p>
+ * The labels are only a guess that skips the discovery round of a write: a writer whose clock is behind will
+ * have its writes rejected by replicas holding a larger label, and has to fall back to discovery.
+ * <p>
+ * Writers that discover labels instead make them with {@link #after}, which also advances the timestamp bits
+ * and keeps the writer id in the low bits. Clock writers and discovering writers can therefore share
+ * addresses: a label can only be made twice by writers with the same id.
+ */
+public class LabelClock {
+    public static final int WRITER_BITS = 12;
+    private static final long TICK = 1L << WRITER_BITS;
+    private final long writerId;
+    private final AtomicLong last = new AtomicLong();
+
+    /** @param writerId distinct for every writer using this kind of label, from 0 to 4095. */
+    public LabelClock(int writerId) {
+        if (writerId < 0 || writerId >= TICK) throw new IllegalArgumentException("writer id must be between 0 and " + (TICK - 1));
+        this.writerId = writerId;
+    }
+
+    public int writerId() {
+        return (int) writerId;
+    }
+
+    /** @return a label larger than every label this clock has made or been advanced past. */
+    public long next() {
+        var now = Instant.now();
+        var stamp = (now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000) << WRITER_BITS | writerId;
+        return last.accumulateAndGet(stamp, (prev, s) -> Long.compareUnsigned(s, prev) > 0 ? s : prev + TICK);
+    }
+
+    /** @return the smallest label of writerId whose timestamp bits are larger than those of label. */
+    public static long after(long label, int writerId) {
+        return ((label >>> WRITER_BITS) + 1) << WRITER_BITS | writerId;
+    }
+
+    /** make sure the next label is larger than label. */
+    public void advancePast(long label) {
+        var mine = label & -TICK | writerId;
+        last.accumulateAndGet(mine, (prev, m) -> Long.compareUnsigned(m, prev) > 0 ? m : prev);
+    }
+}
@@ -0,0 +1,242 @@
+package edu.sjsu.cs249.abd;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Help.Visibility;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static edu.sjsu.cs249.abd.CliUtil.fatal;
+import static edu.sjsu.cs249.abd.CliUtil.info;
+import static edu.sjsu.cs249.abd.CliUtil.warn;
+
+@Command(name = "loadtest", mixinStandardHelpOptions = true, description = "drive read/write load at ABD servers and report latency.")
+class LoadTestCli implements Callable<Integer> {
+    enum Distribution {UNIFORM, ZIPFIAN, HOTKEY}
+
+    @Parameters(index = "0", description = "comma separated list of servers to use. separate replica groups with ';' to shard addresses over them.")
+    String serverPorts;
+
+    @Option(names = "--duration", description = "seconds to run", defaultValue = "30", showDefaultValue = Visibility.ALWAYS)
+    int duration;
+
+    @Option(names = "--interval", description = "seconds between reports", defaultValue = "5", showDefaultValue = Visibility.ALWAYS)
+    int interval;
+
+    @Option(names = "--reads", description = "percentage of operations that are reads", defaultValue = "50", showDefaultValue = Visibility.ALWAYS)
+    int readPercent;
+
+    @Option(names = "--keys", description = "number of distinct addresses", defaultValue = "1000000", showDefaultValue = Visibility.ALWAYS)
+    long keys;
+
+    @Option(names = "--first-addr", description = "lowest address used", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+    long firstAddr;
+
+    @Option(names = "--distribution", description = "how addresses are picked: ${COMPLETION-CANDIDATES}", defaultValue = "UNIFORM", showDefaultValue = Visibility.ALWAYS)
+    Distribution distribution;
+
+    @Option(names = "--zipf-theta", description = "skew of the zipfian distribution", defaultValue = "0.99", showDefaultValue = Visibility.ALWAYS)
+    double zipfTheta;
+
+    @Option(names = "--hot-keys", description = "percentage of addresses that are hot with the hotkey distribution", defaultValue = "1", showDefaultValue = Visibility.ALWAYS)
+    double hotKeyPercent;
+
+    @Option(names = "--hot-ops", description = "percentage of operations that go to hot addresses with the hotkey distribution", defaultValue = "90", showDefaultValue = Visibility.ALWAYS)
+    double hotOpPercent;
+
+    @Option(names = "--concurrency", description = "most operations in flight", defaultValue = "64", showDefaultValue = Visibility.ALWAYS)
+    int concurrency;
+
+    @Option(names = "--rate", description = "operations per second to start (open loop). 0 runs closed loop, starting an operation whenever one finishes", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+    double rate;
+
+    @Option(names = "--timeout", description = "milliseconds allowed for each ABD phase", defaultValue = "2000", showDefaultValue = Visibility.ALWAYS)
+    long timeout;
+
+    @Option(names = "--batch-window", description = "microseconds an operation waits for a batch to fill (0 disables batching)", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+    long batchWindow;
+
+    @Option(names = "--max-batch", description = "most operations in one batch", defaultValue = "512", showDefaultValue = Visibility.ALWAYS)
+    int maxBatch;
+
+    @Option(names = "--pipeline", description = "send unbatched phases over pipeline streams", defaultValue = "false", showDefaultValue = Visibility.ALWAYS)
+    boolean pipeline;
+
+    @Option(names = "--subchannels", description = "connections opened to each server", defaultValue = "1", showDefaultValue = Visibility.ALWAYS)
+    int subchannels;
+
+    @Option(names = "--fast-read", negatable = true, description = "skip the write back of reads whose read1 majority already agrees", defaultValue = "true", showDefaultValue = Visibility.ALWAYS)
+    boolean fastRead;
+
+    @Option(names = "--writer-id", description = "label writes from the clock, tagged with this writer id (0-4095, different for every writer), rather than discovering the current label first. -1 always discovers, with a random writer id", defaultValue = "-1", showDefaultValue = Visibility.ALWAYS)
+    int writerId;
+
+    @Option(names = "--vnodes", description = "points on the hash ring for each replica group", defaultValue = "128", showDefaultValue = Visibility.ALWAYS)
+    int virtualNodes;
+
+    private ShardedABDClient client;
+    private KeyChooser chooser;
+    /* both resize themselves, so an operation stuck longer than any fixed range is still counted */
+    private final Recorder recorder = new Recorder(3);
+    private final Histogram total = new Histogram(3);
+    private final LongAdder errors = new LongAdder();
+
+    interface KeyChooser {
+        /* @return an offset in [0, keys) */
+        long next(ThreadLocalRandom random);
+    }
+
+    @Override
+    public Integer call() throws InterruptedException {
+        if (interval <= 0) fatal("--interval must be at least 1 second, not {0}", interval);
+        var pool = new ChannelPool(subchannels, 300);
+        var clock = writerId < 0 ? null : new LabelClock(writerId);
+        client = new ShardedABDClient(new ShardRing(serverPorts, virtualNodes), pool,
+                channels -> new ABDClient(channels, timeout, TimeUnit.MILLISECONDS, batchWindow, maxBatch, pipeline, fastRead, clock));
+        chooser = switch (distribution) {
+            case UNIFORM -> random -> random.nextLong(keys);
+            case ZIPFIAN -> new Zipfian(keys, zipfTheta);
+            case HOTKEY -> hotKey();
+        };
+
+        var reporter = Executors.newSingleThreadScheduledExecutor();
+        var start = System.nanoTime();
+        var last = new long[]{start};
+        reporter.scheduleAtFixedRate(() -> last[0] = report(start, last[0], recorder.getIntervalHistogram()),
+                interval, interval, TimeUnit.SECONDS);
+        var end = start + TimeUnit.SECONDS.toNanos(duration);
+        var inFlight = new Semaphore(concurrency);
+        if (rate > 0) {
+            openLoop(start, end, inFlight);
+        } else {
+            closedLoop(end, inFlight);
+        }
+        inFlight.acquire(concurrency);
+        reporter.shutdown();
+        reporter.awaitTermination(1, TimeUnit.SECONDS);
+        report(start, last[0], recorder.getIntervalHistogram());
+        var seconds = (System.nanoTime() - start) / 1e9;
+        info("total: {0} ops in {1,number,#.#} s ({2,number,#} ops/sec) p50 {3} p99 {4} p99.9 {5} max {6} errors {7}",
+                total.getTotalCount(), seconds, total.getTotalCount() / seconds,
+                micros(total.getValueAtPercentile(50)), micros(total.getValueAtPercentile(99)),
+                micros(total.getValueAtPercentile(99.9)), micros(total.getMaxValue()), errors.sum());
+        info("{0} of {1} reads skipped the write back", client.fastReads(), client.reads());
+        if (clock != null) info("{0} writes had to discover their label", client.staleWrites());
+        pool.close();
+        return 0;
+    }
+
+    /**
+     * start operations on a fixed schedule. latency is measured from when an operation should have started,
+     * so a stall in the servers or in this loop shows up in the percentiles rather than hiding as a lower rate.
+     */
+    private void openLoop(long start, long end, Semaphore inFlight) throws InterruptedException {
+        var period = 1e9 / rate;
+        long warned = 0;
+        for (long i = 0; ; i++) {
+            var intended = start + (long) (i * period);
+            if (intended >= end) break;
+            for (long now; (now = System.nanoTime()) < intended; ) LockSupport.parkNanos(intended - now);
+            if (!inFlight.tryAcquire()) {
+                if (i - warned > rate) {
+                    warn("{0} operations in flight, start times are slipping", concurrency);
+                    warned = i;
+                }
+                inFlight.acquire();
+            }
+            issue(intended).whenComplete((r, t) -> inFlight.release());
+        }
+    }
+
+    /**
+     * start an operation whenever one finishes. operations are started from this thread rather than from the
+     * completion of the last one, since a completion that runs synchronously would otherwise nest another call.
+     */
+    private void closedLoop(long end, Semaphore inFlight) throws InterruptedException {
+        for (long now; (now = System.nanoTime()) < end; ) {
+            if (!inFlight.tryAcquire(end - now, TimeUnit.NANOSECONDS)) break;
+            issue(System.nanoTime()).whenComplete((r, t) -> inFlight.release());
+        }
+    }
+
+    private CompletableFuture<?> issue(long intendedStart) {
+        var random = ThreadLocalRandom.current();
+        var addr = firstAddr + chooser.next(random);
+        var op = random.nextInt(100) < readPercent ? client.read(addr) : client.write(addr, random.nextLong());
+        return op.whenComplete((r, t) -> {
+            if (t != null) {
+                errors.increment();
+            } else {
+                recorder.recordValue(Math.max(0, System.nanoTime() - intendedStart));
+            }
+        });
+    }
+
+    private synchronized long report(long start, long last, Histogram histogram) {
+        var now = System.nanoTime();
+        total.add(histogram);
+        var seconds = (now - last) / 1e9;
+        info("{0,number,#}s: {1,number,#} ops/sec p50 {2} p99 {3} p99.9 {4} max {5} errors {6}",
+                (now - start) / 1e9, histogram.getTotalCount() / seconds,
+                micros(histogram.getValueAtPercentile(50)), micros(histogram.getValueAtPercentile(99)),
+                micros(histogram.getValueAtPercentile(99.9)), micros(histogram.getMaxValue()), errors.sum());
+        return now;
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.0fus", nanos / 1e3);
+    }
+
+    private KeyChooser hotKey() {
+        var hot = Math.min(keys, Math.max(1, (long) (keys * hotKeyPercent / 100)));
+        var cold = keys - hot;
+        return random -> cold == 0 || random.nextDouble(100) < hotOpPercent ? random.nextLong(hot) : hot + random.nextLong(cold);
+    }
+
+    /** the YCSB zipfian generator. ranks are scrambled so hot addresses are not next to each other. */
+    static class Zipfian implements KeyChooser {
+        private final long items;
+        private final double theta;
+        private final double zetan;
+        private final double alpha;
+        private final double eta;
+
+        Zipfian(long items, double theta) {
+            this.items = items;
+            this.theta = theta;
+            double zeta = 0;
+            for (long i = 1; i <= items; i++) {
+                zeta += 1 / Math.pow(i, theta);
+            }
+            zetan = zeta;
+            var zeta2 = 1 + 1 / Math.pow(2, theta);
+            alpha = 1 / (1 - theta);
+            eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+
+        @Override
+        public long next(ThreadLocalRandom random) {
+            var u = random.nextDouble();
+            var uz = u * zetan;
+            long rank;
+            if (uz < 1) {
+                rank = 0;
+            } else if (uz < 1 + Math.pow(0.5, theta)) {
+                rank = 1;
+            } else {
+                rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+            }
+            return Long.remainderUnsigned(StripedRegisterStore.mix(rank), items);
+        }
+    }
+}
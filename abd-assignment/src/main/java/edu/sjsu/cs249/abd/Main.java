@@ -1,14 +1,12 @@
 package edu.sjsu.cs249.abd;
 
 import edu.sjsu.cs249.abd.ABDServiceGrpc.ABDServiceBlockingStub;
-import edu.sjsu.cs249.abd.Grpc.EnableRequest;
+import edu.sjsu.cs249.abd.DurableRegisterStore.SyncPolicy;
 import edu.sjsu.cs249.abd.Grpc.ExitRequest;
 import edu.sjsu.cs249.abd.Grpc.NameRequest;
-import edu.sjsu.cs249.abd.Grpc.Read1Request;
-import edu.sjsu.cs249.abd.Grpc.Read1Response;
-import edu.sjsu.cs249.abd.Grpc.Read2Request;
-import edu.sjsu.cs249.abd.Grpc.WriteRequest;
-import io.grpc.ManagedChannelBuilder;
+import edu.sjsu.cs249.abd.Grpc.StatsRequest;
+import io.grpc.Channel;
+import io.grpc.Server;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.AbstractStub;
 import picocli.CommandLine.Command;
@@ -18,20 +16,23 @@ import picocli.CommandLine.Parameters;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Stream;
 
 import static edu.sjsu.cs249.abd.CliUtil.debug;
@@ -41,10 +42,11 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class Main {
     public static void main(String[] args) {
+        CliUtil.bufferOutput(100);
         System.exit(new CliUtil(new Cli()).execute(args));
     }
 
-    @Command(name = "ABD", subcommands = {ClientCli.class, ServerCli.class}, mixinStandardHelpOptions = true)
+    @Command(name = "ABD", subcommands = {ClientCli.class, ServerCli.class, StoreBenchCli.class, StoreMemoryCli.class, LoadTestCli.class, ShardCli.class, SimulateCli.class, SuiteCli.class}, mixinStandardHelpOptions = true)
     static class Cli {
         @Option(names = "--debug", description = "show debug messages", defaultValue = "false", showDefaultValue = Visibility.ALWAYS)
         private void setDebug(boolean enabled) {
@@ -59,50 +61,240 @@ public class Main {
 
     @Command(name = "server", mixinStandardHelpOptions = true, description = "start an ADB server.")
     static class ServerCli implements Callable<Integer> {
-        @Parameters(index = "0", description = "host:port listen on.")
+        enum StoreKind {STRIPED, OFFHEAP}
+
+        @Parameters(index = "0", description = "port to listen on.")
         int serverPort;
 
+        @Option(names = "--name", description = "name reported to clients", defaultValue = "abd", showDefaultValue = Visibility.ALWAYS)
+        String name;
+
+        @Option(names = "--stripes", description = "number of lock stripes in the register store (0 for 64 per core)", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+        int stripes;
+
+        @Option(names = "--store", description = "where registers are kept: ${COMPLETION-CANDIDATES}. OFFHEAP keeps them outside the Java heap", defaultValue = "STRIPED", showDefaultValue = Visibility.ALWAYS)
+        StoreKind storeKind;
+
+        @Option(names = "--hot-cache", description = "registers kept in an on-heap cache in front of the OFFHEAP store (0 for none)", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+        int hotCache;
+
+        @Option(names = "--expected-registers", description = "number of registers to size the store for up front", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+        long expectedRegisters;
+
+        @Option(names = "--data-dir", description = "directory to persist registers in. registers are only kept in memory if not set.")
+        Path dataDir;
+
+        @Option(names = "--sync", description = "when to force the register log to disk: ${COMPLETION-CANDIDATES}", defaultValue = "BATCHED", showDefaultValue = Visibility.ALWAYS)
+        SyncPolicy syncPolicy;
+
+        @Option(names = "--sync-interval", description = "milliseconds between log forces with --sync INTERVAL", defaultValue = "10", showDefaultValue = Visibility.ALWAYS)
+        long syncInterval;
+
+        @Option(names = "--snapshot-every", description = "number of logged updates between register snapshots", defaultValue = "10000000", showDefaultValue = Visibility.ALWAYS)
+        long snapshotEvery;
+
+        @Option(names = "--metrics-port", description = "port to serve Prometheus metrics on (0 to disable)", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+        int metricsPort;
+
+        @Option(names = "--executor", description = "what runs request handlers: ${COMPLETION-CANDIDATES}. DIRECT with --data-dir needs --sync INTERVAL", defaultValue = "CACHED", showDefaultValue = Visibility.ALWAYS)
+        ServerThreads.Mode executorMode;
+
+        @Option(names = "--threads", description = "handler threads with --executor FIXED (0 for two per core)", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+        int threads;
+
+        @Option(names = "--boss-threads", description = "netty threads accepting connections (0 for the grpc default)", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+        int bossThreads;
+
+        @Option(names = "--worker-threads", description = "netty threads serving connections (0 for the grpc default)", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+        int workerThreads;
+
+        private RegisterStore newStore(long knownRegisters) {
+            var registers = Math.max(knownRegisters, expectedRegisters);
+            return newStore(storeKind, stripes, Math.max(registers + registers / 4, 1 << 16), hotCache);
+        }
+
+        static RegisterStore newStore(StoreKind kind, int stripes, long expected, int hotCache) {
+            var stripeCount = stripes > 0 ? stripes : Runtime.getRuntime().availableProcessors() * 64;
+            return switch (kind) {
+                case STRIPED -> new StripedRegisterStore(stripeCount, expected);
+                case OFFHEAP -> new OffHeapRegisterStore(stripeCount, expected, hotCache);
+            };
+        }
+
         @Override
-        public Integer call() {
-            System.out.printf("you need to write the code to serve on port %s\n", serverPort);
+        public Integer call() throws IOException, InterruptedException {
+            Executor executor = null;
+            try {
+                executor = ServerThreads.executor(executorMode, threads > 0 ? threads : Runtime.getRuntime().availableProcessors() * 2);
+            } catch (IllegalArgumentException e) {
+                fatal(e.getMessage());
+            }
+            /* with a blocking sync policy every write waits on a log force, which would stall the event loop */
+            if (executorMode == ServerThreads.Mode.DIRECT && dataDir != null && syncPolicy != SyncPolicy.INTERVAL) {
+                fatal("--executor DIRECT with --data-dir needs --sync INTERVAL, {0} would force the register log on the event loop", syncPolicy);
+            }
+            var store = dataDir == null ? newStore(0) : DurableRegisterStore.open(dataDir, syncPolicy, syncInterval, snapshotEvery, this::newStore);
+            var server = new AtomicReference<Server>();
+            var metrics = new ServerMetrics();
+            var service = new ABDServer(name, store, executor, metrics, () -> new Thread(() -> {
+                info("exit requested");
+                server.get().shutdownNow();
+            }).start());
+            server.set(ServerThreads.builder(serverPort, executor, bossThreads, workerThreads).addService(service).intercept(metrics).build());
+            server.get().start();
+            info("listening on {0,number,#}", serverPort);
+            if (metricsPort > 0) {
+                metrics.serveHttp(metricsPort);
+                info("metrics at http://localhost:{0,number,#}/metrics", metricsPort);
+            }
+            server.get().awaitTermination();
             return 0;
         }
     }
 
+    @Command(name = "storebench", mixinStandardHelpOptions = true, description = "measure register store throughput as threads are added.")
+    static class StoreBenchCli implements Callable<Integer> {
+        @Option(names = "--addresses", description = "number of distinct addresses", defaultValue = "4000000", showDefaultValue = Visibility.ALWAYS)
+        int addresses;
+
+        @Option(names = "--seconds", description = "seconds to run each thread count", defaultValue = "3", showDefaultValue = Visibility.ALWAYS)
+        int seconds;
+
+        @Option(names = "--max-threads", description = "largest thread count to try (0 for one per core)", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+        int maxThreads;
+
+        @Option(names = "--reads", description = "percentage of operations that are reads", defaultValue = "50", showDefaultValue = Visibility.ALWAYS)
+        int readPercent;
+
+        @Option(names = "--store", description = "register store to measure: ${COMPLETION-CANDIDATES}", defaultValue = "STRIPED", showDefaultValue = Visibility.ALWAYS)
+        ServerCli.StoreKind storeKind;
+
+        @Option(names = "--hot-cache", description = "registers kept in an on-heap cache in front of the OFFHEAP store (0 for none)", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+        int hotCache;
+
+        @Override
+        public Integer call() throws InterruptedException {
+            if (maxThreads <= 0) maxThreads = Runtime.getRuntime().availableProcessors();
+            double baseline = 0;
+            for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1) {
+                var store = ServerCli.newStore(storeKind, 0, 1 << 16, hotCache);
+                for (long addr = 0; addr < addresses; addr++) {
+                    store.update(addr, 1, addr);
+                }
+                var opsPerSecond = run(store, threads);
+                if (threads == 1) baseline = opsPerSecond;
+                info("{0} threads: {1,number,#} ops/sec speedup {2,number,#.##}x", threads, opsPerSecond, opsPerSecond / baseline);
+            }
+            return 0;
+        }
+
+        private double run(RegisterStore store, int threads) throws InterruptedException {
+            var done = new AtomicBoolean();
+            var ops = new LongAdder();
+            var workers = new ArrayList<Thread>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(new Thread(() -> {
+                    var random = ThreadLocalRandom.current();
+                    long count = 0;
+                    long label = 2;
+                    while (!done.get()) {
+                        var addr = random.nextLong(addresses);
+                        if (random.nextInt(100) < readPercent) {
+                            store.read(addr);
+                        } else {
+                            store.update(addr, label++, addr);
+                        }
+                        count++;
+                    }
+                    ops.add(count);
+                }));
+            }
+            var start = System.nanoTime();
+            workers.forEach(Thread::start);
+            Thread.sleep(SECONDS.toMillis(seconds));
+            done.set(true);
+            for (var w : workers) w.join();
+            return ops.sum() * 1e9 / (System.nanoTime() - start);
+        }
+    }
+
     @Command(name = "client", mixinStandardHelpOptions = true, description = "start an ADB client.")
     static class ClientCli {
         @SuppressWarnings("rawtypes")
         final private Map<AbstractStub, String> stubNames = new HashMap<>();
+        List<Channel> channels;
         List<ABDServiceBlockingStub> stubs;
-        int majority;
-        BitSet bottomMajority = new BitSet();
-        BitSet bottomMinority = new BitSet();
-        BitSet topMajority = new BitSet();
-        BitSet topMinority = new BitSet();
-        BitSet innerMajority = new BitSet();
-        BitSet outerMinority = new BitSet();
-        BitSet all = BitSet.valueOf(new long[]{0xffffffffffffffffL});
         String serverPorts;
 
+        @Option(names = "--pipeline", description = "send unbatched ABD phases over one pipeline stream per server", defaultValue = "false", showDefaultValue = Visibility.ALWAYS)
+        boolean pipeline;
+
+        @Option(names = "--fast-read", negatable = true, description = "skip the write back of reads whose read1 majority already agrees", defaultValue = "true", showDefaultValue = Visibility.ALWAYS)
+        boolean fastRead;
+
+        @Option(names = "--writer-id", description = "label writes from the clock, tagged with this writer id (0-4095, different for every writer), rather than discovering the current label first. -1 always discovers, with a random writer id", defaultValue = "-1", showDefaultValue = Visibility.ALWAYS)
+        int writerId;
+
+        /* @return the clock labelling writes, or null to discover labels */
+        LabelClock clock() {
+            if (writerId < 0) return null;
+            try {
+                return new LabelClock(writerId);
+            } catch (IllegalArgumentException e) {
+                fatal(e.getMessage());
+                return null;
+            }
+        }
+
         static String[] concat(String[] first, String rest) {
             return Stream.concat(Arrays.stream(first), Arrays.stream(rest.split(" "))).toArray(String[]::new);
         }
 
-        private static void runCommand(String[] cmd, String rest, String expectedResult) throws IOException, InterruptedException {
-            var torun = concat(cmd, rest);
-            debug("running {0}", String.join(" ", torun));
-            var proc = new ProcessBuilder(torun).redirectErrorStream(true).start();
-            var collector = new OutputCollector(proc);
-            collector.start();
-            if (!proc.waitFor(10, SECONDS)) {
-                fatal("execution timeout:", String.join(" ", torun));
-            }
-            var result = collector.collect();
-            result = result.stripTrailing();
-            if (!result.endsWith(expectedResult)) {
-                var lastNl = result.indexOf('\n');
-                fatal("expected {0} found {1}", expectedResult, result.substring(lastNl + 1));
-            }
+        /** runs one client operation, like "write 17 1717", and returns what the client printed. */
+        interface ClientRunner {
+            String run(String operation) throws Exception;
+        }
+
+        /* launches a new process for each operation */
+        static ClientRunner processRunner(String[] cmd) {
+            return operation -> {
+                var torun = concat(cmd, operation);
+                debug("running {0}", String.join(" ", torun));
+                var proc = new ProcessBuilder(torun).redirectErrorStream(true).start();
+                var collector = new OutputCollector(proc);
+                collector.start();
+                if (!proc.waitFor(10, SECONDS)) {
+                    proc.destroyForcibly();
+                    throw new TimeoutException("execution timeout: " + String.join(" ", torun));
+                }
+                return collector.collect();
+            };
+        }
+
+        /* calls the driver directly and prints its result the way the command line client would */
+        static ClientRunner driverRunner(ABDClientDriver driver) {
+            return operation -> {
+                debug("driving {0}", operation);
+                var args = operation.split(" ");
+                var result = CompletableFuture.supplyAsync(() -> switch (args[0]) {
+                    case "write" -> driver.write(Long.parseLong(args[1]), Long.parseLong(args[2])) ? "success" : "failure";
+                    case "read" -> {
+                        var register = driver.read(Long.parseLong(args[1]));
+                        yield register == null ? "failed" : register.value() + "(" + register.label() + ")";
+                    }
+                    default -> throw new IllegalArgumentException("unknown operation " + operation);
+                });
+                try {
+                    return result.get(10, SECONDS);
+                } catch (TimeoutException e) {
+                    throw new TimeoutException("execution timeout: " + operation);
+                }
+            };
+        }
+
+        static ABDClientDriver loadDriver(String driverClass) throws ReflectiveOperationException {
+            if (driverClass.equals("builtin")) return new BuiltinClientDriver();
+            return (ABDClientDriver) Class.forName(driverClass).getDeclaredConstructor().newInstance();
         }
 
         @Parameters(description = "comma separated list of servers to use.")
@@ -110,10 +302,11 @@ public class Main {
             try {
                 this.serverPorts = serverPorts;
                 var parts = serverPorts.split(",");
+                channels = ChannelPool.shared().get(Arrays.asList(parts));
                 stubs = new ArrayList<>(parts.length);
                 var nameRequest = NameRequest.newBuilder().build();
                 for (int i = 0; i < parts.length; i++) {
-                    stubs.add(ABDServiceGrpc.newBlockingStub(ManagedChannelBuilder.forTarget(parts[i]).usePlaintext().build()));
+                    stubs.add(ABDServiceGrpc.newBlockingStub(channels.get(i)));
                     try {
                         var rsp = stubs.get(i).withDeadlineAfter(2, SECONDS).name(nameRequest);
                         stubNames.put(stubs.get(i), rsp.getName());
@@ -121,16 +314,6 @@ public class Main {
                         stubNames.put(stubs.get(i), "none");
                     }
                 }
-
-                majority = stubs.size() / 2 + 1;
-                bottomMajority.set(0, majority);
-                bottomMinority.set(0, majority - 1);
-                topMajority.set((stubs.size() - majority), stubs.size());
-                topMinority.set((stubs.size() - majority) + 1, stubs.size());
-                var innerStart = (stubs.size() - majority) / 2;
-                innerMajority.set(innerStart, innerStart + majority);
-                outerMinority.set(0, innerStart);
-                outerMinority.set(innerStart + majority, stubs.size());
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -141,119 +324,92 @@ public class Main {
             return MessageFormat.format("{0}({1})", stub.getChannel().authority(), stubNames.get(stub));
         }
 
-        private String ppMissing(Set<ABDServiceBlockingStub> present) {
-            var all = new HashSet<>(stubs);
-            all.removeAll(present);
-            return ppPresent(all);
-        }
-
-        private String ppPresent(Set<ABDServiceBlockingStub> all) {
-            return all.stream().map(this::ppStub).collect(Collectors.joining(","));
-        }
-
         @Command
         public void testServerProcesses() {
             info("checking that server operations are working");
-            checkEnable(1000);
-            checkEnable(1001);
+            suite().serverChecks();
         }
 
-        private void checkEnable(long address) {
-            debug("===> seeeding initial write");
-            checkWrite(address, 10, 1, true);
-
-            debug("everything disabled but read1");
-            enableRequests(false, true, false);
-            checkWrite(address, 11, 1, false);
-            checkRead2(address, 12, 2, false);
-            checkRead1(address, 10, 1, true);
-
-            debug("everything disabled but read2");
-            enableRequests(false, false, true);
-            checkRead1(address, 10, 1, false);
-            checkRead2(address, 13, 2, true);
-            checkWrite(address, 14, 4, false);
-
-            debug("everything enabled");
-            enableRequests(true, true, true);
-            checkRead1(address, 13, 2, true);
-            checkRead2(address, 15, 5, true);
-            checkRead1(address, 15, 5, true);
-            checkWrite(address, 16, 6, true);
-            checkRead1(address, 16, 6, true);
-
-            info("enable is working on all processeses");
-        }
+        /* the conformance checks against these servers, stopping at the first failure */
+        private ConformanceSuite suite() {
+            return new ConformanceSuite(Arrays.asList(serverPorts.split(",")), 0, 2000, new ConformanceSuite.Listener() {
+                @Override
+                public void started(String check) {
+                    info("testing {0}", check);
+                }
 
-        /* return null on exception */
-        private <R> Function<ABDServiceBlockingStub, R> noe(Function<ABDServiceBlockingStub, R> func) {
-            return o -> {
-                try {
-                    return func.apply(o);
-                } catch (Exception e) {
-                    debug("Skipping {0}", o.getChannel().authority());
+                @Override
+                public void finished(ConformanceSuite.CheckResult result) {
+                    if (!result.passed()) fatal("{0}", result.message());
+                    info("PASSED \u2705");
                 }
-                return null;
-            };
+            });
         }
 
-        private void checkWrite(long address, long label, long value, boolean expectSuccess) {
-            debug("== checking write");
-            var wreq = WriteRequest.newBuilder().setAddr(address).setLabel(label).setValue(value).build();
-            var results = stubs.stream().parallel().map(noe(s -> Map.entry(s, s.withDeadlineAfter(2, SECONDS).write(wreq)))).filter(Objects::nonNull).collect(Collectors.toMap(Entry::getKey, Entry::getValue));
-            if (expectSuccess) {
-                if (results.size() != stubs.size()) {
-                    fatal("these processes do not support basic write: {0}", ppMissing(results.keySet()));
-                }
-            } else {
-                if (results.size() != 0) {
-                    fatal("these processes ignored write disable: {0}", ppPresent(results.keySet()));
-                }
+        @Command(description = "read a register using the ABD protocol.")
+        public void read(@Parameters(paramLabel = "addr") long addr) throws InterruptedException {
+            var client = new ABDClient(channels, 2, SECONDS, 0, 0, pipeline, fastRead);
+            try {
+                var register = client.read(addr).get();
+                debug("write back {0}", client.fastReads() > 0 ? "skipped" : "done");
+                System.out.println(register == null ? "failed" : register.value() + "(" + register.label() + ")");
+            } catch (ExecutionException e) {
+                debug("read failed: {0}", e.getCause().getMessage());
+                System.out.println("failed");
             }
         }
 
-        private void checkRead2(long address, long label, long value, boolean expectSuccess) {
-            debug("== checking read2");
-            var read2 = Read2Request.newBuilder().setAddr(address).setLabel(label).setValue(value).build();
-            var results = stubs.stream().parallel().map(noe(s -> Map.entry(s, s.withDeadlineAfter(2, SECONDS).read2(read2)))).filter(Objects::nonNull).collect(Collectors.toMap(Entry::getKey, Entry::getValue));
-            if (expectSuccess) {
-                if (results.size() != stubs.size()) {
-                    fatal("these processes do not support basic read2: {0}", ppMissing(results.keySet()));
-                }
-            } else {
-                if (results.size() != 0) {
-                    fatal("these processes ignored read2 disable: {0}", ppPresent(results.keySet()));
-                }
+        @Command(description = "write a register using the ABD protocol.")
+        public void write(@Parameters(paramLabel = "addr") long addr, @Parameters(paramLabel = "value") long value) throws InterruptedException {
+            var client = new ABDClient(channels, 2, SECONDS, 0, 0, pipeline, fastRead, clock());
+            try {
+                var label = client.write(addr, value).get();
+                if (client.staleWrites() > 0) debug("label from the clock was too small, discovered it instead");
+                debug("wrote {0} with label {1}", value, label);
+                System.out.println("success");
+            } catch (ExecutionException e) {
+                debug("write failed: {0}", e.getCause().getMessage());
+                System.out.println("failure");
             }
         }
 
-        private void checkRead1(long addr, long expectedLabel, long expectedValue, boolean expectResponse) {
-            debug("== checking read1");
-            var read1 = Read1Request.newBuilder().setAddr(addr).build();
-            var results = stubs.stream().parallel().map(noe(s -> Map.entry(s, s.withDeadlineAfter(2, SECONDS).read1(read1)))).filter(Objects::nonNull).collect(Collectors.toMap(Entry::getKey, Entry::getValue));
-            if (expectResponse) {
-                if (results.size() != stubs.size()) {
-                    fatal("these processes do not support read1 {0}", ppMissing(results.keySet()));
-                }
-                for (var entry : results.entrySet()) {
-                    Read1Response read1rsp = entry.getValue();
-                    if (read1rsp.getRc() == 1 || read1rsp.getLabel() != expectedLabel || read1rsp.getValue() != expectedValue) {
-                        fatal("{0} returned bad response: {1}", entry.getKey().getChannel().authority(), read1rsp);
-                    }
-                }
-            } else {
-                if (results.size() != 0) {
-                    fatal("these processes did not disable read1 {0}", ppPresent(results.keySet()));
-                }
+        @Command(description = "write a range of registers as fast as possible and report the rate.")
+        public void bulkWrite(@Parameters(paramLabel = "addr", description = "first address to write") long start,
+                              @Parameters(paramLabel = "count", description = "number of registers to write") int count,
+                              @Option(names = "--batch-window", description = "microseconds an operation waits for a batch to fill (0 disables batching)", defaultValue = "200", showDefaultValue = Visibility.ALWAYS) long batchWindow,
+                              @Option(names = "--max-batch", description = "most operations in one batch", defaultValue = "512", showDefaultValue = Visibility.ALWAYS) int maxBatch,
+                              @Option(names = "--outstanding", description = "most writes in flight at once", defaultValue = "4096", showDefaultValue = Visibility.ALWAYS) int outstanding) throws InterruptedException {
+            var client = new ABDClient(channels, 10, SECONDS, batchWindow, maxBatch, pipeline, fastRead, clock());
+            var inFlight = new Semaphore(outstanding);
+            var failures = new LongAdder();
+            var begin = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                inFlight.acquire();
+                client.write(start + i, i).whenComplete((label, t) -> {
+                    if (t != null) failures.increment();
+                    inFlight.release();
+                });
             }
+            inFlight.acquire(outstanding);
+            var seconds = (System.nanoTime() - begin) / 1e9;
+            info("wrote {0} registers in {1,number,#.###} s: {2,number,#} writes/sec, {3} failures", count, seconds, count / seconds, failures.sum());
         }
 
-        private void enableRequests(boolean write, boolean read1, boolean read2) {
-            debug("==enabling request");
-            var enable = EnableRequest.newBuilder().setWrite(write).setRead1(read1).setRead2(read2).build();
-            var results = stubs.stream().parallel().map(noe(s -> Map.entry(s, s.withDeadlineAfter(2, SECONDS).enableRequests(enable)))).filter(Objects::nonNull).collect(Collectors.toMap(Entry::getKey, Entry::getValue));
-            if (results.size() != stubs.size()) {
-                fatal("these processes do not support enable: {0}", ppMissing(results.keySet()));
+        @Command(description = "show the call statistics of each server.")
+        public void stats() {
+            var request = StatsRequest.newBuilder().build();
+            for (var s : stubs) {
+                try {
+                    var rsp = s.withDeadlineAfter(2, SECONDS).stats(request);
+                    info("{0}", ppStub(s));
+                    for (var m : rsp.getMethodList()) {
+                        System.out.printf("  %-30s calls %d errors %d dropped %d in flight %d req %dB rsp %dB p50 %dus p99 %dus p99.9 %dus max %dus%n",
+                                m.getMethod(), m.getCalls(), m.getErrors(), m.getDropped(), m.getInFlight(), m.getRequestBytes(),
+                                m.getResponseBytes(), m.getP50Micros(), m.getP99Micros(), m.getP999Micros(), m.getMaxMicros());
+                    }
+                } catch (StatusRuntimeException e) {
+                    CliUtil.error("{0}: {1}", ppStub(s), e.getStatus());
+                }
             }
         }
 
@@ -266,75 +422,23 @@ public class Main {
         }
 
         @Command
-        public void testClient(@Parameters(description = "commandline to run the client", paramLabel = "command_with_args", arity = "1..*", index = "*") String[] cmd) throws InterruptedException, IOException {
-            enableWrites(all);
-            info("testing basic read and write");
-            cmd = concat(cmd, serverPorts);
-            runCommand(cmd, "write 17 1717", "success");
-            Read1Response rsp = getMaxLabel(17);
-            runCommand(cmd, "read 17", "1717(" + rsp.getLabel() + ")");
-            runCommand(cmd, "read 18", "failed");
-            info("PASSED \u2705");
-
-            info("testing with minority write failures");
-            enableWrites(topMajority);
-            runCommand(cmd, "write 117 1717", "success");
-            rsp = getMaxLabel(117);
-            runCommand(cmd, "read 117", "1717(" + rsp.getLabel() + ")");
-            runCommand(cmd, "read 118", "failed");
-            runCommand(cmd, "read 118", "failed");
-            info("PASSED \u2705");
-            info("testing with majority write failures");
-            enableWrites(topMinority);
-            runCommand(cmd, "write 217 2717", "failure");
-            info("PASSED \u2705");
-            info("testing with minority read failures");
-            // note, this will force the client to see some of the failed write
-            enableRead(topMajority, bottomMajority);
-            rsp = getMaxLabel(217);
-            runCommand(cmd, "read 217", "2717(" + rsp.getLabel() + ")");
-            info("PASSED \u2705");
-            info("test with single write");
-            var writeReq = WriteRequest.newBuilder().setAddr(218).setLabel(2).setValue(3).build();
-            var lastStub = stubs.get(stubs.size() - 1);
-            lastStub.withDeadlineAfter(3, SECONDS).write(writeReq);
-            enableRead(topMajority, bottomMinority);
-            runCommand(cmd, "read 218", "failed");
-            enableRead(bottomMajority, topMinority);
-            runCommand(cmd, "read 218", "failed");
-            enableRead(bottomMajority, innerMajority);
-            runCommand(cmd, "read 218", "3(2)");
-            info("PASSED \u2705");
-        }
-
-        Read1Response getMaxLabel(long address) {
-            debug("== getMaxLabel");
-            return stubs.stream().parallel().map(noe(s -> s.withDeadlineAfter(2, SECONDS).read1(Read1Request.newBuilder().setAddr(address).build()))).filter(Objects::nonNull).max((a, b) -> (int) (a.getLabel() - b.getLabel())).get();
-
-        }
-
-        void enableWrites(BitSet mask) {
-            debug("enabling writes on {0}", mask);
-            for (int i = 0; i < stubs.size(); i++) {
-                var req = EnableRequest.newBuilder().setWrite(mask.get(i)).setRead1(true).setRead2(true).build();
-                try {
-                    stubs.get(i).withDeadlineAfter(2, SECONDS).enableRequests(req);
-                } catch (Exception e) {
-                    fatal("failed enabling writes on {0}", stubs.get(i).getChannel().authority());
+        public void testClient(@Option(names = "--driver", description = "run the client in this JVM: builtin or the name of a class implementing ABDClientDriver") String driverClass,
+                               @Parameters(description = "commandline to run the client", paramLabel = "command_with_args", arity = "0..*", index = "*") String[] cmd) throws ReflectiveOperationException {
+            if (driverClass == null && (cmd == null || cmd.length == 0)) {
+                fatal("either --driver or a client commandline is needed");
+            }
+            if (driverClass != null) {
+                try (var driver = loadDriver(driverClass)) {
+                    driver.connect(serverPorts);
+                    testClient(driverRunner(driver));
                 }
+            } else {
+                testClient(processRunner(concat(cmd, serverPorts)));
             }
         }
 
-        private void enableRead(BitSet r1Mask, BitSet r2Mask) {
-            debug("enabling read on {0} {1}", r1Mask, r2Mask);
-            for (int i = 0; i < stubs.size(); i++) {
-                var req = EnableRequest.newBuilder().setWrite(true).setRead1(r1Mask.get(i)).setRead2(r2Mask.get(i)).build();
-                try {
-                    stubs.get(i).enableRequests(req);
-                } catch (Exception e) {
-                    fatal("failed enabling reads on {0}", stubs.get(i).getChannel().authority());
-                }
-            }
+        private void testClient(ClientRunner cmd) {
+            suite().clientChecks(cmd);
         }
 
         static class OutputCollector extends Thread {
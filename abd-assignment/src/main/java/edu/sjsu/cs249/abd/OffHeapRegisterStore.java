@@ -0,0 +1,290 @@
+package edu.sjsu.cs249.abd;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A {@link RegisterStore} whose tables live outside the Java heap, so hundreds of millions of registers cost
+ * the garbage collector nothing to trace or copy. Like {@link StripedRegisterStore} the address space is hashed
+ * over many independently locked stripes; each stripe is an open addressing table of fixed 24 byte slots
+ * holding addr, label and value in a direct buffer. Address 0 marks an empty slot, so the register at address
+ * 0 is kept beside the table.
+ * <p>
+ * A stripe can also keep a small on-heap cache of the addresses it served last. It is direct mapped, holding
+ * each entry's three longs next to each other, so hot registers stay in a small dense array that fits the CPU
+ * caches rather than scattered over gigabytes of table. A read that misses fills the cache only if it can take
+ * the stripe's write lock without waiting, so the cache pays off for skewed workloads and costs a little for
+ * uniform ones.
+ * <p>
+ * Direct buffers count against -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+ */
+public class OffHeapRegisterStore implements RegisterStore {
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final int SLOT = 24;
+    /* a direct buffer holds at most 2GB */
+    private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / SLOT);
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    /**
+     * @param stripeCount number of independently locked stripes. rounded up to a power of two.
+     * @param expectedRegisters number of registers to size the tables for up front.
+     * @param cacheEntries registers kept in the on-heap caches of all stripes together. 0 disables them.
+     */
+    public OffHeapRegisterStore(int stripeCount, long expectedRegisters, int cacheEntries) {
+        var count = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+        stripes = new Stripe[count];
+        stripeMask = count - 1;
+        var perStripe = Math.min(MAX_CAPACITY, expectedRegisters / count + 1);
+        var cachePerStripe = cacheEntries <= 0 ? 0 : Integer.highestOneBit(Math.max(1, cacheEntries / count - 1) << 1);
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe((int) perStripe, cachePerStripe);
+        }
+    }
+
+    private Stripe stripeFor(long hash) {
+        return stripes[(int) (hash >>> 40) & stripeMask];
+    }
+
+    @Override
+    public Register read(long addr) {
+        var hash = StripedRegisterStore.mix(addr);
+        return stripeFor(hash).read(addr, (int) hash);
+    }
+
+    @Override
+    public boolean update(long addr, long label, long value) {
+        var hash = StripedRegisterStore.mix(addr);
+        return stripeFor(hash).update(addr, (int) hash, label, value);
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (var stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void forEach(RegisterVisitor visitor) {
+        for (var stripe : stripes) {
+            stripe.forEach(visitor);
+        }
+    }
+
+    @Override
+    public int parts() {
+        return stripes.length;
+    }
+
+    @Override
+    public void forEach(int part, RegisterVisitor visitor) {
+        stripes[part].forEach(visitor);
+    }
+
+    /** @return bytes of direct memory held by the tables. */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (var stripe : stripes) {
+            bytes += stripe.offHeapBytes();
+        }
+        return bytes;
+    }
+
+    /* a table never changes size, so a reader holding a stale table can still probe it safely */
+    private static final class Table {
+        final ByteBuffer slots;
+        final int capacity;
+        final int mask;
+
+        Table(int capacity) {
+            slots = ByteBuffer.allocateDirect(capacity * SLOT).order(ByteOrder.nativeOrder());
+            this.capacity = capacity;
+            mask = capacity - 1;
+        }
+
+        long addr(int slot) {
+            return slots.getLong(slot * SLOT);
+        }
+
+        long label(int slot) {
+            return slots.getLong(slot * SLOT + 8);
+        }
+
+        long value(int slot) {
+            return slots.getLong(slot * SLOT + 16);
+        }
+
+        /* @return the slot holding addr, which is not 0, or the free slot where it belongs encoded as -(slot + 1) */
+        int find(long addr, int hash) {
+            var i = hash & mask;
+            long a;
+            while ((a = addr(i)) != 0) {
+                if (a == addr) return i;
+                i = (i + 1) & mask;
+            }
+            return -(i + 1);
+        }
+
+        void set(int slot, long label, long value) {
+            slots.putLong(slot * SLOT + 8, label);
+            slots.putLong(slot * SLOT + 16, value);
+        }
+
+        void put(int slot, long addr, long label, long value) {
+            set(slot, label, value);
+            slots.putLong(slot * SLOT, addr);
+        }
+    }
+
+    private static final class Stripe {
+        private final StampedLock lock = new StampedLock();
+        /* addr, label, value of each entry; an entry is empty while its label is 0 */
+        private final long[] cache;
+        private final int cacheMask;
+        private Table table;
+        private int size;
+        private int threshold;
+        private boolean hasZero;
+        private long zeroLabel;
+        private long zeroValue;
+
+        Stripe(int expected, int cacheEntries) {
+            var capacity = Integer.highestOneBit(Math.max(8, (int) Math.min(MAX_CAPACITY, expected / LOAD_FACTOR)) - 1) << 1;
+            table = new Table(capacity);
+            threshold = (int) (capacity * LOAD_FACTOR);
+            cache = cacheEntries == 0 ? null : new long[cacheEntries * 3];
+            cacheMask = cacheEntries - 1;
+        }
+
+        Register read(long addr, int hash) {
+            var stamp = lock.tryOptimisticRead();
+            var register = lookup(addr, hash);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    register = lookup(addr, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            if (cache != null && register != null && addr != 0 && cache[cacheEntry(hash)] != addr) remember(addr, hash);
+            return register;
+        }
+
+        private void remember(long addr, int hash) {
+            var stamp = lock.tryWriteLock();
+            if (stamp == 0) return;
+            try {
+                var slot = table.find(addr, hash);
+                if (slot >= 0) cache(addr, hash, table.label(slot), table.value(slot));
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /* labels of 0 are not cached, since 0 marks an empty entry */
+        private void cache(long addr, int hash, long label, long value) {
+            if (label == 0) return;
+            var e = cacheEntry(hash);
+            cache[e] = addr;
+            cache[e + 1] = label;
+            cache[e + 2] = value;
+        }
+
+        private Register lookup(long addr, int hash) {
+            if (addr == 0) return hasZero ? new Register(zeroLabel, zeroValue) : null;
+            if (cache != null) {
+                var e = cacheEntry(hash);
+                if (cache[e] == addr && cache[e + 1] != 0) return new Register(cache[e + 1], cache[e + 2]);
+            }
+            var t = table;
+            var slot = t.find(addr, hash);
+            return slot < 0 ? null : new Register(t.label(slot), t.value(slot));
+        }
+
+        /* the cache is indexed by hash bits the table does not use for picking the stripe */
+        private int cacheEntry(int hash) {
+            return ((hash >>> 7) & cacheMask) * 3;
+        }
+
+        boolean update(long addr, int hash, long label, long value) {
+            var stamp = lock.writeLock();
+            try {
+                if (addr == 0) {
+                    if (hasZero && Long.compareUnsigned(label, zeroLabel) <= 0) return false;
+                    if (!hasZero) size++;
+                    hasZero = true;
+                    zeroLabel = label;
+                    zeroValue = value;
+                    return true;
+                }
+                var slot = table.find(addr, hash);
+                if (slot >= 0) {
+                    if (Long.compareUnsigned(label, table.label(slot)) <= 0) return false;
+                    table.set(slot, label, value);
+                } else {
+                    if (size >= threshold) {
+                        grow();
+                        slot = table.find(addr, hash);
+                    }
+                    table.put(-(slot + 1), addr, label, value);
+                    size++;
+                }
+                if (cache != null) cache(addr, hash, label, value);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int size() {
+            var stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long offHeapBytes() {
+            var stamp = lock.readLock();
+            try {
+                return (long) table.capacity * SLOT;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void forEach(RegisterVisitor visitor) {
+            var stamp = lock.readLock();
+            try {
+                if (hasZero) visitor.visit(0, zeroLabel, zeroValue);
+                var t = table;
+                for (int i = 0; i < t.capacity; i++) {
+                    var addr = t.addr(i);
+                    if (addr != 0) visitor.visit(addr, t.label(i), t.value(i));
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private void grow() {
+            var old = table;
+            if (old.capacity == MAX_CAPACITY) throw new IllegalStateException("register table stripe is full, use more stripes");
+            var bigger = new Table(old.capacity << 1);
+            for (int i = 0; i < old.capacity; i++) {
+                var addr = old.addr(i);
+                if (addr == 0) continue;
+                var slot = bigger.find(addr, (int) StripedRegisterStore.mix(addr));
+                bigger.put(-(slot + 1), addr, old.label(i), old.value(i));
+            }
+            table = bigger;
+            threshold = (int) (bigger.capacity * LOAD_FACTOR);
+        }
+    }
+}
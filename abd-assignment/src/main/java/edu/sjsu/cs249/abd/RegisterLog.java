@@ -0,0 +1,191 @@
+package edu.sjsu.cs249.abd;
+
+import edu.sjsu.cs249.abd.RegisterStore.RegisterVisitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * An append-only log of register updates kept in memory-mapped segment files named log-SEQ.dat. Each record
+ * is addr, label, value and a checksum; a record with a bad checksum marks the end of a segment, so a torn
+ * write at a crash is simply dropped on replay.
+ * <p>
+ * Positions are logical: segment sequence * segment size + offset. {@link #awaitDurable} lets any number of
+ * appenders wait on one force of the segment (group commit).
+ */
+public class RegisterLog implements Closeable {
+    static final int RECORD_SIZE = 32;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("log-(\\p{XDigit}{16})\\.dat");
+
+    private final Path dir;
+    private final int segmentSize;
+    private long segmentSeq;
+    private MappedByteBuffer segment;
+    private FileChannel segmentChannel;
+    private int offset;
+    /* guarded by syncLock */
+    private final Object syncLock = new Object();
+    private long durable;
+    private boolean syncing;
+
+    /**
+     * start a new segment after every existing one. existing segments are left for {@link #replay}.
+     * @param segmentSize bytes per segment file. rounded down to a whole number of records.
+     */
+    public RegisterLog(Path dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+        var existing = segments(dir);
+        openSegment(existing.isEmpty() ? 0 : existing.get(existing.size() - 1) + 1);
+        durable = position();
+    }
+
+    static String segmentName(long seq) {
+        return String.format("log-%016x.dat", seq);
+    }
+
+    /** @return the sequence numbers of the segments in dir in ascending order. */
+    static List<Long> segments(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.map(f -> SEGMENT_NAME.matcher(f.getFileName().toString()))
+                    .filter(m -> m.matches())
+                    .map(m -> Long.parseUnsignedLong(m.group(1), 16))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /** feed every intact record of the segments numbered from firstSeq up to the visitor in log order. */
+    static long replay(Path dir, long firstSeq, RegisterVisitor visitor) throws IOException {
+        long records = 0;
+        for (var seq : segments(dir)) {
+            if (seq < firstSeq) continue;
+            try (var channel = FileChannel.open(dir.resolve(segmentName(seq)), READ)) {
+                var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    var addr = buffer.getLong();
+                    var label = buffer.getLong();
+                    var value = buffer.getLong();
+                    if (buffer.getLong() != checksum(addr, label, value)) break;
+                    visitor.visit(addr, label, value);
+                    records++;
+                }
+            }
+        }
+        return records;
+    }
+
+    /* never zero, so the zero filled tail of a segment is never mistaken for a record */
+    private static long checksum(long addr, long label, long value) {
+        return StripedRegisterStore.mix(addr ^ StripedRegisterStore.mix(label ^ StripedRegisterStore.mix(value))) | 1;
+    }
+
+    private void openSegment(long seq) throws IOException {
+        segmentSeq = seq;
+        segmentChannel = FileChannel.open(dir.resolve(segmentName(seq)), CREATE_NEW, READ, WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        offset = 0;
+    }
+
+    /** @return the logical position just past the last appended record. */
+    public synchronized long position() {
+        return segmentSeq * segmentSize + offset;
+    }
+
+    /** @return the sequence number of the segment currently being appended to. */
+    public synchronized long currentSegment() {
+        return segmentSeq;
+    }
+
+    /** @return the logical position just past this record. */
+    public synchronized long append(long addr, long label, long value) {
+        if (offset == segmentSize) {
+            roll();
+        }
+        segment.putLong(offset, addr);
+        segment.putLong(offset + 8, label);
+        segment.putLong(offset + 16, value);
+        segment.putLong(offset + 24, checksum(addr, label, value));
+        offset += RECORD_SIZE;
+        return position();
+    }
+
+    /**
+     * force the current segment and move appends to a new one.
+     * @return the sequence number of the new segment. every record appended before this call is in an older one.
+     */
+    public synchronized long roll() {
+        try {
+            segment.force();
+            segmentChannel.close();
+            openSegment(segmentSeq + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return segmentSeq;
+    }
+
+    /**
+     * block until everything up to position is on disk. if no force is running the caller becomes the leader
+     * and forces everything appended so far on behalf of all waiters, otherwise it waits for the running force.
+     */
+    public void awaitDurable(long position) throws InterruptedException {
+        synchronized (syncLock) {
+            while (durable < position && syncing) {
+                syncLock.wait();
+            }
+            if (durable >= position) return;
+            syncing = true;
+        }
+        force(true);
+    }
+
+    /** force everything appended so far. */
+    public void sync() {
+        force(false);
+    }
+
+    private void force(boolean leader) {
+        long target;
+        MappedByteBuffer toForce;
+        synchronized (this) {
+            target = position();
+            toForce = segment;
+        }
+        try {
+            // records in older segments were forced when their segment was rolled
+            toForce.force();
+        } finally {
+            synchronized (syncLock) {
+                durable = Math.max(durable, target);
+                if (leader) syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    /** delete the segments numbered before seq. */
+    public void truncateBefore(long seq) throws IOException {
+        for (var old : segments(dir)) {
+            if (old < seq) Files.deleteIfExists(dir.resolve(segmentName(old)));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        segment.force();
+        segmentChannel.close();
+    }
+}
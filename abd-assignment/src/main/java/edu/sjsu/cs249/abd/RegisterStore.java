@@ -0,0 +1,58 @@
+package edu.sjsu.cs249.abd;
+
+/**
+ * Storage for the ABD registers of a server. Implementations must make {@link #update} atomic per address:
+ * the compare of the incoming label against the stored one and the store of the new label and value happen
+ * as one step.
+ */
+public interface RegisterStore {
+    record Register(long label, long value) {}
+
+    interface RegisterVisitor {
+        void visit(long addr, long label, long value);
+    }
+
+    /** @return the register at addr or null if addr has never been written. */
+    Register read(long addr);
+
+    /**
+     * store label and value at addr if addr has never been written or label is larger than the stored label.
+     * @return true if the register was changed.
+     */
+    boolean update(long addr, long label, long value);
+
+    /**
+     * {@link #update} each of the first count registers described by the arrays. each address is updated
+     * atomically, but the batch as a whole is not.
+     * @return for each register whether it was changed.
+     */
+    default boolean[] updateAll(int count, long[] addrs, long[] labels, long[] values) {
+        var changed = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            changed[i] = update(addrs[i], labels[i], values[i]);
+        }
+        return changed;
+    }
+
+    /** @return the number of addresses that have been written. */
+    long size();
+
+    /**
+     * visit every register. registers updated during the walk may be visited with either their old or new
+     * contents.
+     */
+    void forEach(RegisterVisitor visitor);
+
+    /** @return the number of parts {@link #forEach(int, RegisterVisitor)} walks the store in. */
+    default int parts() {
+        return 1;
+    }
+
+    /**
+     * visit every register of one part, from 0 until {@link #parts()}. walking all the parts visits what
+     * {@link #forEach(RegisterVisitor)} does, but a caller can stop between parts without holding anything.
+     */
+    default void forEach(int part, RegisterVisitor visitor) {
+        forEach(visitor);
+    }
+}
@@ -0,0 +1,211 @@
+package edu.sjsu.cs249.abd;
+
+import com.google.protobuf.MessageLite;
+import com.sun.net.httpserver.HttpServer;
+import edu.sjsu.cs249.abd.Grpc.MethodStats;
+import edu.sjsu.cs249.abd.Grpc.StatsResponse;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts calls, in flight requests, errors, drops, payload bytes and latency for every method of the server
+ * it intercepts. The hot path only touches striped counters and a fixed array of power of two latency buckets.
+ * The numbers are served by the stats RPC and, optionally, as Prometheus text over HTTP.
+ * <p>
+ * Vendored: here-assignment-server carries its own copy, without the drop counter, because every assignment
+ * builds on its own and its stats messages come from its own proto. A fix here belongs in that copy too.
+ */
+public class ServerMetrics implements ServerInterceptor {
+    /* bucket i counts latencies below 2^i microseconds; the last bucket catches everything longer */
+    private static final int BUCKETS = 28;
+    private static final Context.Key<Method> CURRENT = Context.key("metrics");
+    private final ConcurrentHashMap<String, Method> methods = new ConcurrentHashMap<>();
+
+    static class Method {
+        final LongAdder calls = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder inFlight = new LongAdder();
+        final LongAdder requestBytes = new LongAdder();
+        final LongAdder responseBytes = new LongAdder();
+        final LongAdder latencyNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final AtomicLongArray latencyBuckets = new AtomicLongArray(BUCKETS);
+
+        void recordLatency(long nanos) {
+            var micros = nanos / 1000;
+            latencyBuckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+            latencyNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        /* @return the upper bound in microseconds of the bucket holding the percentile */
+        long percentileMicros(double percentile) {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += latencyBuckets.get(i);
+            }
+            var target = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += latencyBuckets.get(i);
+                if (seen >= target && seen > 0) return 1L << i;
+            }
+            return 0;
+        }
+    }
+
+    /** count the request being handled by the calling thread as dropped. */
+    public static void recordDrop() {
+        var method = CURRENT.get();
+        if (method != null) method.dropped.increment();
+    }
+
+    private static long size(Object message) {
+        return message instanceof MessageLite m ? m.getSerializedSize() : 0;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        var method = methods.computeIfAbsent(call.getMethodDescriptor().getFullMethodName(), n -> new Method());
+        var start = System.nanoTime();
+        method.calls.increment();
+        method.inFlight.increment();
+        var finished = new boolean[1];
+        var counted = new SimpleForwardingServerCall<>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                method.responseBytes.add(size(message));
+                super.sendMessage(message);
+            }
+
+            @Override
+            public void close(Status status, Metadata trailers) {
+                if (!status.isOk()) method.errors.increment();
+                method.recordLatency(System.nanoTime() - start);
+                super.close(status, trailers);
+            }
+        };
+        var listener = Contexts.interceptCall(Context.current().withValue(CURRENT, method), counted, headers, next);
+        return new SimpleForwardingServerCallListener<>(listener) {
+            @Override
+            public void onMessage(ReqT message) {
+                method.requestBytes.add(size(message));
+                super.onMessage(message);
+            }
+
+            @Override
+            public void onComplete() {
+                done();
+                super.onComplete();
+            }
+
+            @Override
+            public void onCancel() {
+                done();
+                super.onCancel();
+            }
+
+            /* grpc never runs two callbacks of one listener at once, so a plain flag keeps inFlight from being decremented twice */
+            private void done() {
+                if (finished[0]) return;
+                finished[0] = true;
+                method.inFlight.decrement();
+            }
+        };
+    }
+
+    /** @return a snapshot of every method seen so far. */
+    public StatsResponse stats() {
+        var rsp = StatsResponse.newBuilder();
+        for (var e : new TreeMap<>(methods).entrySet()) {
+            var m = e.getValue();
+            rsp.addMethod(MethodStats.newBuilder()
+                    .setMethod(e.getKey())
+                    .setCalls(m.calls.sum())
+                    .setErrors(m.errors.sum())
+                    .setDropped(m.dropped.sum())
+                    .setInFlight(m.inFlight.sum())
+                    .setRequestBytes(m.requestBytes.sum())
+                    .setResponseBytes(m.responseBytes.sum())
+                    .setP50Micros(m.percentileMicros(50))
+                    .setP99Micros(m.percentileMicros(99))
+                    .setP999Micros(m.percentileMicros(99.9))
+                    .setMaxMicros(m.maxNanos.get() / 1000));
+        }
+        return rsp.build();
+    }
+
+    /** @return every metric in the Prometheus text exposition format. */
+    public String prometheus() {
+        var sorted = new TreeMap<>(methods);
+        var out = new StringBuilder();
+        counter(out, sorted, "rpc_calls_total", "counter", "calls started", m -> m.calls.sum());
+        counter(out, sorted, "rpc_errors_total", "counter", "calls completed with a status other than OK", m -> m.errors.sum());
+        counter(out, sorted, "rpc_dropped_total", "counter", "requests ignored because their type is disabled", m -> m.dropped.sum());
+        counter(out, sorted, "rpc_in_flight", "gauge", "calls started but not finished", m -> m.inFlight.sum());
+        counter(out, sorted, "rpc_request_bytes_total", "counter", "serialized size of requests", m -> m.requestBytes.sum());
+        counter(out, sorted, "rpc_response_bytes_total", "counter", "serialized size of responses", m -> m.responseBytes.sum());
+        out.append("# HELP rpc_latency_seconds time from call start to close\n");
+        out.append("# TYPE rpc_latency_seconds histogram\n");
+        for (var e : sorted.entrySet()) {
+            var m = e.getValue();
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                cumulative += m.latencyBuckets.get(i);
+                out.append("rpc_latency_seconds_bucket{method=\"").append(e.getKey()).append("\",le=\"")
+                        .append((1L << i) / 1e6).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += m.latencyBuckets.get(BUCKETS - 1);
+            out.append("rpc_latency_seconds_bucket{method=\"").append(e.getKey()).append("\",le=\"+Inf\"} ").append(cumulative).append('\n');
+            out.append("rpc_latency_seconds_sum{method=\"").append(e.getKey()).append("\"} ").append(m.latencyNanos.sum() / 1e9).append('\n');
+            out.append("rpc_latency_seconds_count{method=\"").append(e.getKey()).append("\"} ").append(cumulative).append('\n');
+        }
+        return out.toString();
+    }
+
+    private interface Counter {
+        long get(Method method);
+    }
+
+    private static void counter(StringBuilder out, Map<String, Method> methods, String name, String type, String help, Counter counter) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (var e : methods.entrySet()) {
+            out.append(name).append("{method=\"").append(e.getKey()).append("\"} ").append(counter.get(e.getValue())).append('\n');
+        }
+    }
+
+    /** serve {@link #prometheus()} at http://localhost:port/metrics. */
+    public HttpServer serveHttp(int port) throws IOException {
+        var http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.createContext("/metrics", exchange -> {
+            var body = prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (var os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        http.start();
+        return http;
+    }
+}
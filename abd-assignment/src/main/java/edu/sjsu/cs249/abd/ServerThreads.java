@@ -0,0 +1,73 @@
+package edu.sjsu.cs249.abd;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.ServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads a server runs on: the executor handlers are called on and the netty event loops that accept
+ * connections (boss) and move bytes (worker). DIRECT runs handlers on the event loop, which only pays off when
+ * no handler blocks.
+ * <p>
+ * Vendored: here-assignment-server has a copy without DIRECT. The assignments build separately, so the copies
+ * are kept by hand; change both.
+ */
+class ServerThreads {
+    enum Mode {CACHED, FIXED, VIRTUAL, DIRECT}
+
+    /**
+     * @param threads pool size with FIXED.
+     * @throws IllegalArgumentException if VIRTUAL is asked for on a JVM without virtual threads.
+     */
+    static Executor executor(Mode mode, int threads) {
+        return switch (mode) {
+            case CACHED -> Executors.newCachedThreadPool();
+            case FIXED -> Executors.newFixedThreadPool(threads);
+            case DIRECT -> MoreExecutors.directExecutor();
+            /* looked up reflectively so we still build and run on java 17 */
+            case VIRTUAL -> {
+                try {
+                    yield (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (NoSuchMethodException e) {
+                    throw new IllegalArgumentException("virtual threads need Java 21 or newer, this is Java " + Runtime.version().feature());
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException("could not create virtual thread executor: " + e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param bossThreads event loop threads accepting connections, 0 for the grpc default.
+     * @param workerThreads event loop threads serving connections, 0 for the grpc default.
+     */
+    static ServerBuilder<?> builder(int port, Executor executor, int bossThreads, int workerThreads) {
+        /* tolerate clients with shorter keepalives than ChannelPool's, rather than closing them with too_many_pings */
+        var builder = NettyServerBuilder.forPort(port).executor(executor)
+                .permitKeepAliveTime(10, TimeUnit.SECONDS).permitKeepAliveWithoutCalls(true);
+        if (bossThreads > 0 || workerThreads > 0) {
+            /* grpc shares its default groups, so once one is ours both have to be */
+            var epoll = Epoll.isAvailable();
+            builder.bossEventLoopGroup(eventLoops(epoll, Math.max(bossThreads, 1)))
+                    .workerEventLoopGroup(eventLoops(epoll, workerThreads))
+                    .channelType(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class);
+        }
+        return builder;
+    }
+
+    /* 0 threads lets netty pick two per core */
+    private static EventLoopGroup eventLoops(boolean epoll, int threads) {
+        return epoll ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+    }
+}
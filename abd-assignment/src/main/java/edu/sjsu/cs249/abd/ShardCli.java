@@ -0,0 +1,75 @@
+package edu.sjsu.cs249.abd;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Help.Visibility;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static edu.sjsu.cs249.abd.CliUtil.debug;
+import static edu.sjsu.cs249.abd.CliUtil.info;
+
+@Command(name = "shard", mixinStandardHelpOptions = true,
+        description = "use several ABD replica groups, each holding part of the address space. a layout lists the groups separated by ';', each a comma separated list of servers.")
+class ShardCli {
+    @Option(names = "--vnodes", description = "points on the hash ring for each replica group", defaultValue = "128", showDefaultValue = Visibility.ALWAYS)
+    int virtualNodes;
+
+    @Option(names = "--timeout", description = "milliseconds allowed for each ABD phase", defaultValue = "2000", showDefaultValue = Visibility.ALWAYS)
+    long timeout;
+
+    @Option(names = "--writer-id", description = "label writes from the clock, tagged with this writer id (0-4095, different for every writer), rather than discovering the current label first. -1 always discovers, with a random writer id", defaultValue = "-1", showDefaultValue = Visibility.ALWAYS)
+    int writerId;
+
+    private ShardedABDClient connect(String layout) {
+        return connect(layout, 0, 0);
+    }
+
+    private ShardedABDClient connect(String layout, long batchWindow, int maxBatch) {
+        return new ShardedABDClient(new ShardRing(layout, virtualNodes), ChannelPool.shared(),
+                channels -> new ABDClient(channels, timeout, TimeUnit.MILLISECONDS, batchWindow, maxBatch, false, true,
+                        writerId < 0 ? null : new LabelClock(writerId)));
+    }
+
+    @Command(description = "show the replica group holding an address.")
+    public void locate(@Parameters(paramLabel = "layout") String layout, @Parameters(paramLabel = "addr") long addr) {
+        var ring = new ShardRing(layout, virtualNodes);
+        System.out.println(ring.groups().get(ring.shardOf(addr)));
+    }
+
+    @Command(description = "read a register from the replica group holding it.")
+    public void read(@Parameters(paramLabel = "layout") String layout, @Parameters(paramLabel = "addr") long addr) throws InterruptedException {
+        try {
+            var register = connect(layout).read(addr).get();
+            System.out.println(register == null ? "failed" : register.value() + "(" + register.label() + ")");
+        } catch (ExecutionException e) {
+            debug("read failed: {0}", e.getCause().getMessage());
+            System.out.println("failed");
+        }
+    }
+
+    @Command(description = "write a register to the replica group holding it.")
+    public void write(@Parameters(paramLabel = "layout") String layout, @Parameters(paramLabel = "addr") long addr,
+                      @Parameters(paramLabel = "value") long value) throws InterruptedException {
+        try {
+            var label = connect(layout).write(addr, value).get();
+            debug("wrote {0} with label {1}", value, label);
+            System.out.println("success");
+        } catch (ExecutionException e) {
+            debug("write failed: {0}", e.getCause().getMessage());
+            System.out.println("failure");
+        }
+    }
+
+    @Command(description = "copy the registers that change groups going from one layout to another, usually one with a group added. stop writes while it runs.")
+    public void rebalance(@Parameters(paramLabel = "from") String from, @Parameters(paramLabel = "to") String to,
+                          @Option(names = "--outstanding", description = "most registers copied at once", defaultValue = "4096", showDefaultValue = Visibility.ALWAYS) int outstanding,
+                          @Option(names = "--batch-window", description = "microseconds a copy waits for a batch to fill (0 disables batching)", defaultValue = "200", showDefaultValue = Visibility.ALWAYS) long batchWindow,
+                          @Option(names = "--max-batch", description = "most copies in one batch", defaultValue = "512", showDefaultValue = Visibility.ALWAYS) int maxBatch) throws InterruptedException {
+        var begin = System.nanoTime();
+        var moved = ShardedABDClient.rebalance(connect(from, batchWindow, maxBatch), connect(to, batchWindow, maxBatch), ChannelPool.shared(), outstanding);
+        info("copied {0} registers in {1,number,#.###} s", moved, (System.nanoTime() - begin) / 1e9);
+    }
+}
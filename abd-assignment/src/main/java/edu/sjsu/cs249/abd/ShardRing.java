@@ -0,0 +1,73 @@
+package edu.sjsu.cs249.abd;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits the address space over replica groups with consistent hashing. Each group is placed on a ring of
+ * 64 bit hashes at many virtual nodes, and an address belongs to the group owning the first point at or after
+ * the hash of the address. Adding a group only moves the addresses that land on its points, about 1/n of them.
+ * <p>
+ * A group is identified by its server list exactly as written, so the same list has to be used every time.
+ */
+public class ShardRing {
+    private final List<String> groups;
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * @param layout replica groups separated by ';', each a comma separated list of servers.
+     * @param virtualNodes points on the ring for each group. more points spread addresses more evenly.
+     */
+    public ShardRing(String layout, int virtualNodes) {
+        this(Arrays.stream(layout.split(";")).map(String::strip).filter(g -> !g.isEmpty()).toList(), virtualNodes);
+    }
+
+    public ShardRing(List<String> groups, int virtualNodes) {
+        if (groups.isEmpty()) throw new IllegalArgumentException("no replica groups");
+        if (groups.stream().distinct().count() != groups.size()) throw new IllegalArgumentException("replica groups repeated in " + groups);
+        this.groups = List.copyOf(groups);
+        var count = groups.size() * virtualNodes;
+        var entries = new long[count][];
+        for (int g = 0; g < groups.size(); g++) {
+            var seed = hash(groups.get(g));
+            for (int v = 0; v < virtualNodes; v++) {
+                entries[g * virtualNodes + v] = new long[]{StripedRegisterStore.mix(seed + v * 0x9e3779b97f4a7c15L), g};
+            }
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+        points = new long[count];
+        owners = new int[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = entries[i][0];
+            owners[i] = (int) entries[i][1];
+        }
+    }
+
+    /* FNV-1a, then mixed so similar server lists land far apart */
+    private static long hash(String group) {
+        var h = 0xcbf29ce484222325L;
+        for (var b : group.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return StripedRegisterStore.mix(h);
+    }
+
+    /** @return the index of the group holding addr. */
+    public int shardOf(long addr) {
+        var i = Arrays.binarySearch(points, StripedRegisterStore.mix(addr));
+        if (i < 0) i = -(i + 1);
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /** @return the server list of each group. */
+    public List<String> groups() {
+        return groups;
+    }
+
+    /** @return the servers of group. */
+    public List<String> servers(int group) {
+        return List.of(groups.get(group).split(","));
+    }
+}
@@ -0,0 +1,149 @@
+package edu.sjsu.cs249.abd;
+
+import edu.sjsu.cs249.abd.Grpc.ScanRequest;
+import edu.sjsu.cs249.abd.RegisterStore.Register;
+import io.grpc.Channel;
+import io.grpc.StatusRuntimeException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static edu.sjsu.cs249.abd.CliUtil.debug;
+import static edu.sjsu.cs249.abd.CliUtil.info;
+
+/**
+ * ABD over several replica groups, each holding the part of the address space a {@link ShardRing} gives it.
+ * Every phase of an operation goes only to the group that owns the address, so adding groups adds capacity.
+ */
+public class ShardedABDClient {
+    private static final int COPY_ATTEMPTS = 3;
+    private final ShardRing ring;
+    private final List<ABDClient> shards;
+
+    /**
+     * @param newClient makes the client for one group from the channels to its servers.
+     */
+    public ShardedABDClient(ShardRing ring, ChannelPool pool, Function<List<Channel>, ABDClient> newClient) {
+        this.ring = ring;
+        var shards = new ArrayList<ABDClient>(ring.groups().size());
+        for (int g = 0; g < ring.groups().size(); g++) {
+            shards.add(newClient.apply(pool.get(ring.servers(g))));
+        }
+        this.shards = List.copyOf(shards);
+    }
+
+    /** @see ABDClient#read(long) */
+    public CompletableFuture<Register> read(long addr) {
+        return shards.get(ring.shardOf(addr)).read(addr);
+    }
+
+    /** @see ABDClient#write(long, long) */
+    public CompletableFuture<Long> write(long addr, long value) {
+        return shards.get(ring.shardOf(addr)).write(addr, value);
+    }
+
+    /** @see ABDClient#reads() */
+    public long reads() {
+        return shards.stream().mapToLong(ABDClient::reads).sum();
+    }
+
+    /** @see ABDClient#fastReads() */
+    public long fastReads() {
+        return shards.stream().mapToLong(ABDClient::fastReads).sum();
+    }
+
+    /** @see ABDClient#staleWrites() */
+    public long staleWrites() {
+        return shards.stream().mapToLong(ABDClient::staleWrites).sum();
+    }
+
+    /**
+     * copy every register whose group changes between from and to into its new group, keeping its label.
+     * addresses are found by scanning the servers of each old group; the copy itself is an ABD read from the old
+     * group and a write back to the new one, retried a few times if it fails. writes should be stopped while
+     * this runs, and clients switched to the new layout after it finishes. the old copies are left where they are.
+     * @param outstanding most registers being copied at once.
+     * @return the number of registers copied.
+     */
+    public static long rebalance(ShardedABDClient from, ShardedABDClient to, ChannelPool pool, int outstanding) throws InterruptedException {
+        long moved = 0;
+        long failed = 0;
+        for (int g = 0; g < from.ring.groups().size(); g++) {
+            var group = from.ring.groups().get(g);
+            var addrs = moving(from.ring, g, to.ring, pool);
+            info("{0} registers move out of {1}", addrs.length, group);
+            var pending = addrs;
+            for (int attempt = 0; attempt < COPY_ATTEMPTS && pending.length > 0; attempt++) {
+                if (attempt > 0) info("retrying {0} registers", pending.length);
+                pending = copy(from.shards.get(g), to, pending, outstanding);
+            }
+            moved += addrs.length - pending.length;
+            failed += pending.length;
+        }
+        if (failed > 0) throw new IllegalStateException(failed + " registers could not be copied");
+        return moved;
+    }
+
+    /* @return the addresses that could not be copied */
+    private static long[] copy(ABDClient source, ShardedABDClient to, long[] addrs, int outstanding) throws InterruptedException {
+        var failed = new ConcurrentLinkedQueue<Long>();
+        var inFlight = new Semaphore(outstanding);
+        for (var addr : addrs) {
+            inFlight.acquire();
+            var target = to.shards.get(to.ring.shardOf(addr));
+            source.read(addr)
+                    .thenCompose(register -> register == null ? CompletableFuture.completedFuture(null) : target.writeBack(addr, register))
+                    .whenComplete((r, t) -> {
+                        if (t != null) {
+                            debug("copying {0} failed: {1}", addr, t.getMessage());
+                            failed.add(addr);
+                        }
+                        inFlight.release();
+                    });
+        }
+        inFlight.acquire(outstanding);
+        return failed.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /*
+     * a completed write reached a majority of the group, so scanning any majority of its servers finds every
+     * address that matters
+     */
+    private static long[] moving(ShardRing from, int group, ShardRing to, ChannelPool pool) {
+        var name = from.groups().get(group);
+        var servers = from.servers(group);
+        var addrs = new long[1024];
+        var count = 0;
+        var scanned = 0;
+        for (var server : servers) {
+            try {
+                var responses = ABDServiceGrpc.newBlockingStub(pool.get(server))
+                        .withDeadlineAfter(10, TimeUnit.MINUTES)
+                        .scan(ScanRequest.newBuilder().build());
+                while (responses.hasNext()) {
+                    for (var addr : responses.next().getAddrList()) {
+                        if (to.groups().get(to.shardOf(addr)).equals(name)) continue;
+                        if (count == addrs.length) addrs = Arrays.copyOf(addrs, count * 2);
+                        addrs[count++] = addr;
+                    }
+                }
+                scanned++;
+            } catch (StatusRuntimeException e) {
+                info("could not scan {0}: {1}", server, e.getStatus());
+            }
+        }
+        if (scanned < servers.size() / 2 + 1) throw new IllegalStateException("could only scan " + scanned + " servers of " + name);
+        Arrays.sort(addrs, 0, count);
+        var unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || addrs[i] != addrs[unique - 1]) addrs[unique++] = addrs[i];
+        }
+        return Arrays.copyOf(addrs, unique);
+    }
+}
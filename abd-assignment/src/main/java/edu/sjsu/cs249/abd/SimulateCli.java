@@ -0,0 +1,143 @@
+package edu.sjsu.cs249.abd;
+
+import org.HdrHistogram.Histogram;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Help.Visibility;
+import picocli.CommandLine.Option;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static edu.sjsu.cs249.abd.CliUtil.info;
+import static edu.sjsu.cs249.abd.CliUtil.warn;
+
+@Command(name = "simulate", mixinStandardHelpOptions = true,
+        description = "run ABD replicas in this process behind a simulated network and report quorum latency as links degrade. " +
+                "exits with 1 if a scenario that still has a healthy majority has a p99 more than --bound times the healthy p99.")
+class SimulateCli implements Callable<Integer> {
+    @Option(names = "--replicas", description = "number of replicas", defaultValue = "5", showDefaultValue = Visibility.ALWAYS)
+    int replicas;
+
+    @Option(names = "--ops", description = "operations in each scenario", defaultValue = "20000", showDefaultValue = Visibility.ALWAYS)
+    int ops;
+
+    @Option(names = "--concurrency", description = "most operations in flight", defaultValue = "32", showDefaultValue = Visibility.ALWAYS)
+    int concurrency;
+
+    @Option(names = "--reads", description = "percentage of operations that are reads", defaultValue = "50", showDefaultValue = Visibility.ALWAYS)
+    int readPercent;
+
+    @Option(names = "--keys", description = "number of distinct addresses", defaultValue = "1000", showDefaultValue = Visibility.ALWAYS)
+    long keys;
+
+    @Option(names = "--latency", description = "one way microseconds on every link", defaultValue = "500", showDefaultValue = Visibility.ALWAYS)
+    long latency;
+
+    @Option(names = "--jitter", description = "mean microseconds of exponential jitter added to every message", defaultValue = "100", showDefaultValue = Visibility.ALWAYS)
+    long jitter;
+
+    @Option(names = "--slow", description = "extra microseconds a slow replica takes to answer", defaultValue = "20000", showDefaultValue = Visibility.ALWAYS)
+    long slow;
+
+    @Option(names = "--drop", description = "fraction of requests lost on a lossy link", defaultValue = "0.05", showDefaultValue = Visibility.ALWAYS)
+    double drop;
+
+    @Option(names = "--timeout", description = "milliseconds allowed for each ABD phase", defaultValue = "2000", showDefaultValue = Visibility.ALWAYS)
+    long timeout;
+
+    @Option(names = "--bound", description = "largest allowed ratio of a bounded scenario's p99 to the healthy p99", defaultValue = "2", showDefaultValue = Visibility.ALWAYS)
+    double bound;
+
+    @Option(names = "--fast-read", negatable = true, description = "skip the write back of reads whose read1 majority already agrees", defaultValue = "true", showDefaultValue = Visibility.ALWAYS)
+    boolean fastRead;
+
+    @Option(names = "--writer-id", description = "label writes from the clock, tagged with this writer id (0-4095, different for every writer), rather than discovering the current label first. -1 always discovers, with a random writer id", defaultValue = "-1", showDefaultValue = Visibility.ALWAYS)
+    int writerId;
+
+    /* bounded scenarios leave a majority of fast, reliable links, so their tail should look like the healthy one */
+    private record Scenario(String name, boolean bounded, Consumer<SimulatedCluster> degrade) {}
+
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        var minority = (replicas - 1) / 2;
+        var scenarios = new ArrayList<Scenario>();
+        scenarios.add(new Scenario("healthy", false, c -> {}));
+        scenarios.add(new Scenario("one slow replica", true, c -> c.link(0).slow(slow)));
+        if (minority >= 2) scenarios.add(new Scenario("two slow replicas", true, c -> degrade(c, 2, l -> l.slow(slow))));
+        scenarios.add(new Scenario("lossy minority", true, c -> degrade(c, minority, l -> l.drop(drop))));
+        scenarios.add(new Scenario("minority partitioned", true, c -> degrade(c, minority, l -> l.partition(true))));
+        scenarios.add(new Scenario("lossy everywhere", false, c -> degrade(c, replicas, l -> l.drop(drop))));
+        scenarios.add(new Scenario("majority slow", false, c -> degrade(c, minority + 1, l -> l.slow(slow))));
+
+        /* the first scenario would otherwise pay for warming up the JIT and set too loose a bound */
+        measure(scenarios.get(0), new Histogram(TimeUnit.MINUTES.toNanos(1), 3));
+        long healthy = 0;
+        var violations = 0;
+        for (var scenario : scenarios) {
+            var histogram = new Histogram(TimeUnit.MINUTES.toNanos(1), 3);
+            var errors = measure(scenario, histogram);
+            var p99 = histogram.getValueAtPercentile(99);
+            info("{0}: p50 {1} p99 {2} p99.9 {3} max {4} errors {5}", scenario.name,
+                    micros(histogram.getValueAtPercentile(50)), micros(p99),
+                    micros(histogram.getValueAtPercentile(99.9)), micros(histogram.getMaxValue()), errors);
+            if (healthy == 0) healthy = p99;
+            if (scenario.bounded && (p99 > bound * healthy || errors > 0)) {
+                warn("{0}: p99 {1} is more than {2} times the healthy {3} or operations failed", scenario.name, micros(p99), bound, micros(healthy));
+                violations++;
+            }
+        }
+        return violations == 0 ? 0 : 1;
+    }
+
+    /* @return the failed operations */
+    private long measure(Scenario scenario, Histogram histogram) throws IOException, InterruptedException {
+        try (var cluster = new SimulatedCluster(replicas)) {
+            cluster.links().forEach(l -> l.latency(latency, jitter));
+            scenario.degrade.accept(cluster);
+            return run(cluster, histogram);
+        }
+    }
+
+    private static void degrade(SimulatedCluster cluster, int count, Consumer<SimulatedCluster.Link> how) {
+        for (int i = 0; i < count; i++) how.accept(cluster.link(i));
+    }
+
+    /* closed loop over a fresh client, keeping concurrency operations in flight */
+    private long run(SimulatedCluster cluster, Histogram histogram) throws InterruptedException {
+        var client = new ABDClient(cluster.channels(), timeout, TimeUnit.MILLISECONDS, 0, 0, false, fastRead,
+                writerId < 0 ? null : new LabelClock(writerId));
+        var errors = new LongAdder();
+        var remaining = new AtomicLong(ops);
+        var inFlight = new Semaphore(concurrency);
+        while (remaining.getAndDecrement() > 0) {
+            inFlight.acquire();
+            var random = ThreadLocalRandom.current();
+            var addr = random.nextLong(keys);
+            var start = System.nanoTime();
+            var op = random.nextInt(100) < readPercent ? client.read(addr) : client.write(addr, random.nextLong());
+            op.whenComplete((r, t) -> {
+                if (t != null) {
+                    errors.increment();
+                } else {
+                    synchronized (histogram) {
+                        histogram.recordValue(System.nanoTime() - start);
+                    }
+                }
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(concurrency);
+        return errors.sum();
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.0fus", nanos / 1e3);
+    }
+}
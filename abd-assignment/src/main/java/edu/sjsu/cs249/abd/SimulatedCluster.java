@@ -0,0 +1,263 @@
+package edu.sjsu.cs249.abd;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ABD replicas in this process, reached over the grpc in-process transport through a simulated network. Each
+ * replica's {@link Link} delays every message by a base latency plus exponentially distributed jitter, can drop
+ * requests, can be partitioned away, and can make its replica slow to answer. Links can be changed at any time;
+ * a change applies to messages sent after it.
+ * <p>
+ * A dropped or partitioned request is never delivered, so the caller waits for its deadline just as it would
+ * for a lost packet. Messages of one call are always delivered in order.
+ */
+public class SimulatedCluster implements AutoCloseable {
+    private static int clusters;
+    /*
+     * one thread delivers everything, which keeps the callbacks of each call serialized and in order. calls that
+     * close after the cluster does have nowhere to go, so their messages are discarded.
+     */
+    private final ScheduledExecutorService network = new ScheduledThreadPoolExecutor(1, r -> {
+        var t = new Thread(r, "simulated-network");
+        t.setDaemon(true);
+        return t;
+    }, new ThreadPoolExecutor.DiscardPolicy());
+    private final ExecutorService serverExecutor = Executors.newCachedThreadPool(r -> {
+        var t = new Thread(r, "simulated-replica");
+        t.setDaemon(true);
+        return t;
+    });
+    private final List<Server> servers = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    private final List<Link> links = new ArrayList<>();
+
+    /** the network between the client and one replica. */
+    public final class Link implements ClientInterceptor {
+        private volatile long latencyNanos;
+        private volatile long jitterNanos;
+        private volatile long slowNanos;
+        private volatile double dropRate;
+        private volatile boolean partitioned;
+
+        /**
+         * @param latencyMicros one way delay of every message.
+         * @param jitterMicros mean of the exponentially distributed delay added on top.
+         */
+        public void latency(long latencyMicros, long jitterMicros) {
+            latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+            jitterNanos = TimeUnit.MICROSECONDS.toNanos(jitterMicros);
+        }
+
+        /** @param slowMicros extra time the replica takes to answer each request. */
+        public void slow(long slowMicros) {
+            slowNanos = TimeUnit.MICROSECONDS.toNanos(slowMicros);
+        }
+
+        /** @param dropRate the fraction of requests lost on the way to the replica. */
+        public void drop(double dropRate) {
+            this.dropRate = dropRate;
+        }
+
+        /** @param partitioned if true, no request reaches the replica. */
+        public void partition(boolean partitioned) {
+            this.partitioned = partitioned;
+        }
+
+        /** a fast, reliable link. */
+        public void reset() {
+            latency(0, 0);
+            slow(0);
+            drop(0);
+            partition(false);
+        }
+
+        private long delay() {
+            var jitter = jitterNanos;
+            return latencyNanos + (jitter == 0 ? 0 : (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * jitter));
+        }
+
+        private boolean lost() {
+            return partitioned || (dropRate > 0 && ThreadLocalRandom.current().nextDouble() < dropRate);
+        }
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions options, Channel next) {
+            var callbacks = options.getExecutor() == null ? MoreExecutors.directExecutor() : options.getExecutor();
+            return new DelayedCall<>(this, next.newCall(method, options), method.getType() == MethodType.UNARY, callbacks);
+        }
+    }
+
+    /*
+     * schedules each message at now + delay, but never before the message sent ahead of it. the executor reads the
+     * clock again for each task, so two messages due at the same time could swap; instead every timer delivers
+     * whatever message is at the head of the queue.
+     */
+    private final class Delivery {
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        /* nanoTime can be negative, so this starts at the clock rather than at 0 */
+        private long last = System.nanoTime();
+
+        synchronized void schedule(long delayNanos, Runnable task) {
+            var now = System.nanoTime();
+            last = Math.max(now + delayNanos, last);
+            queue.add(task);
+            network.schedule(this::deliver, last - now, TimeUnit.NANOSECONDS);
+        }
+
+        private void deliver() {
+            Runnable task;
+            synchronized (this) {
+                task = queue.poll();
+            }
+            task.run();
+        }
+    }
+
+    private final class DelayedCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+        private final Link link;
+        private final ClientCall<ReqT, RespT> call;
+        private final boolean unary;
+        /* a blocking stub waits for its callbacks on its own executor, so they have to be handed to it */
+        private final Executor callbacks;
+        private final Delivery requests = new Delivery();
+        private final Delivery responses = new Delivery();
+        private volatile boolean cancelled;
+        /* a unary request that was lost takes its half close with it, so the call waits for its deadline */
+        private boolean blackholed;
+
+        DelayedCall(Link link, ClientCall<ReqT, RespT> call, boolean unary, Executor callbacks) {
+            this.link = link;
+            this.call = call;
+            this.unary = unary;
+            this.callbacks = callbacks;
+        }
+
+        private void respond(long delayNanos, Runnable callback) {
+            responses.schedule(delayNanos, () -> callbacks.execute(callback));
+        }
+
+        @Override
+        public void start(Listener<RespT> listener, Metadata headers) {
+            call.start(new Listener<>() {
+                @Override
+                public void onHeaders(Metadata headers) {
+                    respond(link.delay() + link.slowNanos, () -> listener.onHeaders(headers));
+                }
+
+                @Override
+                public void onMessage(RespT message) {
+                    respond(link.delay() + link.slowNanos, () -> listener.onMessage(message));
+                }
+
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    /* a local cancel or deadline is not a message on the wire */
+                    var delay = cancelled || status.getCode() == Status.Code.DEADLINE_EXCEEDED ? 0 : link.delay() + link.slowNanos;
+                    respond(delay, () -> listener.onClose(status, trailers));
+                }
+
+                @Override
+                public void onReady() {
+                    network.execute(() -> callbacks.execute(listener::onReady));
+                }
+            }, headers);
+        }
+
+        @Override
+        public void request(int numMessages) {
+            call.request(numMessages);
+        }
+
+        @Override
+        public void cancel(String message, Throwable cause) {
+            cancelled = true;
+            call.cancel(message, cause);
+        }
+
+        @Override
+        public void halfClose() {
+            if (blackholed) return;
+            requests.schedule(link.delay(), () -> {
+                if (!cancelled) call.halfClose();
+            });
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+            if (link.lost()) {
+                if (unary) blackholed = true;
+                return;
+            }
+            requests.schedule(link.delay(), () -> {
+                if (!cancelled) call.sendMessage(message);
+            });
+        }
+
+        @Override
+        public boolean isReady() {
+            return call.isReady();
+        }
+    }
+
+    /** start replicas replicas behind fast, reliable links. */
+    public SimulatedCluster(int replicas) throws IOException {
+        int cluster;
+        synchronized (SimulatedCluster.class) {
+            cluster = clusters++;
+        }
+        for (int i = 0; i < replicas; i++) {
+            var name = "simulated-" + cluster + "-" + i;
+            var service = new ABDServer(name, new StripedRegisterStore(), serverExecutor, new ServerMetrics(), () -> {});
+            servers.add(InProcessServerBuilder.forName(name).executor(serverExecutor).addService(service).build().start());
+            var link = new Link();
+            links.add(link);
+            channels.add(InProcessChannelBuilder.forName(name).intercept(link).build());
+        }
+    }
+
+    public Link link(int replica) {
+        return links.get(replica);
+    }
+
+    public List<Link> links() {
+        return links;
+    }
+
+    /** @return one channel per replica, each going through its link. */
+    public List<ManagedChannel> channels() {
+        return channels;
+    }
+
+    @Override
+    public void close() {
+        channels.forEach(ManagedChannel::shutdownNow);
+        servers.forEach(Server::shutdownNow);
+        network.shutdownNow();
+        serverExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,197 @@
+package edu.sjsu.cs249.abd;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.HdrHistogram.Histogram;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Help.Visibility;
+import picocli.CommandLine.Option;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static edu.sjsu.cs249.abd.CliUtil.info;
+
+@Command(name = "storemem", mixinStandardHelpOptions = true,
+        description = "fill register stores and report the memory each register takes and the garbage collection pauses while filling and using them.")
+class StoreMemoryCli implements Callable<Integer> {
+    enum Kind {MAP, STRIPED, OFFHEAP}
+
+    @Option(names = "--stores", split = ",", description = "stores to measure, one after the other: ${COMPLETION-CANDIDATES}. MAP keeps each register as objects in a ConcurrentHashMap", defaultValue = "MAP,STRIPED,OFFHEAP", showDefaultValue = Visibility.ALWAYS)
+    List<Kind> kinds;
+
+    @Option(names = "--registers", description = "number of registers to fill each store with", defaultValue = "10000000", showDefaultValue = Visibility.ALWAYS)
+    long registers;
+
+    @Option(names = "--seconds", description = "seconds of reads and updates after filling", defaultValue = "10", showDefaultValue = Visibility.ALWAYS)
+    int seconds;
+
+    @Option(names = "--threads", description = "threads reading and updating (0 for one per core)", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+    int threads;
+
+    @Option(names = "--reads", description = "percentage of operations that are reads", defaultValue = "50", showDefaultValue = Visibility.ALWAYS)
+    int readPercent;
+
+    @Option(names = "--hot-cache", description = "registers kept in the on-heap cache of the OFFHEAP store (0 for none)", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+    int hotCache;
+
+    /* the pause of every collection since the last reset, in microseconds */
+    private final Histogram pauses = new Histogram(TimeUnit.MINUTES.toMicros(10), 3);
+
+    @Override
+    public Integer call() throws InterruptedException {
+        if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+        NotificationListener listener = (notification, handback) -> {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) return;
+            var gc = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            /* the collections forced to measure the heap are not pauses the store caused */
+            if (gc.getGcCause().equals("System.gc()")) return;
+            synchronized (pauses) {
+                pauses.recordValue(TimeUnit.MILLISECONDS.toMicros(gc.getGcInfo().getDuration()));
+            }
+        };
+        for (var bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) bean).addNotificationListener(listener, null, null);
+        }
+        for (var kind : kinds) {
+            measure(kind);
+        }
+        return 0;
+    }
+
+    private void measure(Kind kind) throws InterruptedException {
+        var heapBefore = settledHeap();
+        var directBefore = directBytes();
+        resetPauses();
+        var start = System.nanoTime();
+        var store = switch (kind) {
+            case MAP -> new MapRegisterStore();
+            case STRIPED -> Main.ServerCli.newStore(Main.ServerCli.StoreKind.STRIPED, 0, 1 << 16, 0);
+            case OFFHEAP -> Main.ServerCli.newStore(Main.ServerCli.StoreKind.OFFHEAP, 0, 1 << 16, hotCache);
+        };
+        for (long addr = 0; addr < registers; addr++) {
+            store.update(addr, 1, addr);
+        }
+        var fillSeconds = (System.nanoTime() - start) / 1e9;
+        reportPauses(kind + " fill", fillSeconds);
+        var heap = settledHeap() - heapBefore;
+        var direct = directBytes() - directBefore;
+        info("{0}: {1} registers take {2,number,#.#} MB heap and {3,number,#.#} MB off heap, {4,number,#.#} bytes per register",
+                kind, store.size(), heap / 1e6, direct / 1e6, (double) (heap + direct) / registers);
+
+        resetPauses();
+        var ops = churn(store);
+        reportPauses(kind + " " + seconds + " s of " + String.format("%,d", ops) + " reads and updates", seconds);
+    }
+
+    /* @return the operations done */
+    private long churn(RegisterStore store) throws InterruptedException {
+        var done = new AtomicBoolean();
+        var counts = new long[threads];
+        var workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            var index = t;
+            workers.add(new Thread(() -> {
+                var random = ThreadLocalRandom.current();
+                long count = 0;
+                long label = 2;
+                while (!done.get()) {
+                    var addr = random.nextLong(registers);
+                    if (random.nextInt(100) < readPercent) {
+                        store.read(addr);
+                    } else {
+                        store.update(addr, label++, addr);
+                    }
+                    count++;
+                }
+                counts[index] = count;
+            }));
+        }
+        workers.forEach(Thread::start);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        done.set(true);
+        long ops = 0;
+        for (int t = 0; t < threads; t++) {
+            workers.get(t).join();
+            ops += counts[t];
+        }
+        return ops;
+    }
+
+    private void resetPauses() {
+        synchronized (pauses) {
+            pauses.reset();
+        }
+    }
+
+    private void reportPauses(String phase, double seconds) {
+        synchronized (pauses) {
+            var total = pauses.getTotalCount() == 0 ? 0 : pauses.getMean() * pauses.getTotalCount();
+            info("{0}: {1} collections, {2,number,#.#} ms paused ({3,number,#.##}% of the time), p99 {4,number,#.#} ms, max {5,number,#.#} ms",
+                    phase, pauses.getTotalCount(), total / 1e3, total / 1e4 / seconds,
+                    pauses.getValueAtPercentile(99) / 1e3, pauses.getMaxValue() / 1e3);
+        }
+    }
+
+    /* heap in use after collecting everything that can be */
+    private static long settledHeap() {
+        var memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /* direct memory in use, once the buffers collected with the heap have been freed by their cleaners */
+    private static long directBytes() throws InterruptedException {
+        long last = -1;
+        for (int i = 0; i < 50; i++) {
+            var used = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                    .filter(b -> b.getName().equals("direct")).mapToLong(BufferPoolMXBean::getMemoryUsed).sum();
+            if (used == last) break;
+            last = used;
+            Thread.sleep(100);
+        }
+        return last;
+    }
+
+    /* registers as objects on the heap: a boxed address and a record for each */
+    private static class MapRegisterStore implements RegisterStore {
+        private final ConcurrentHashMap<Long, Register> registers = new ConcurrentHashMap<>();
+
+        @Override
+        public Register read(long addr) {
+            return registers.get(addr);
+        }
+
+        @Override
+        public boolean update(long addr, long label, long value) {
+            var changed = new boolean[1];
+            registers.compute(addr, (a, old) -> {
+                if (old != null && Long.compareUnsigned(label, old.label()) <= 0) return old;
+                changed[0] = true;
+                return new Register(label, value);
+            });
+            return changed[0];
+        }
+
+        @Override
+        public long size() {
+            return registers.size();
+        }
+
+        @Override
+        public void forEach(RegisterVisitor visitor) {
+            registers.forEach((addr, register) -> visitor.visit(addr, register.label(), register.value()));
+        }
+    }
+}
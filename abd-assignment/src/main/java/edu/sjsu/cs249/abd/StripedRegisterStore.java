@@ -0,0 +1,206 @@
+package edu.sjsu.cs249.abd;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * An in-memory {@link RegisterStore} keyed by primitive longs. The address space is hashed over many stripes,
+ * each an open addressing table guarded by its own lock, so writers to different stripes never contend.
+ * Reads are optimistic and only take the stripe lock if a writer got in the way.
+ */
+public class StripedRegisterStore implements RegisterStore {
+    private static final float LOAD_FACTOR = 0.6f;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    public StripedRegisterStore() {
+        this(Runtime.getRuntime().availableProcessors() * 64, 1 << 16);
+    }
+
+    /**
+     * @param stripeCount number of independently locked stripes. rounded up to a power of two.
+     * @param expectedRegisters number of registers to size the tables for up front.
+     */
+    public StripedRegisterStore(int stripeCount, long expectedRegisters) {
+        var count = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+        stripes = new Stripe[count];
+        stripeMask = count - 1;
+        var perStripe = (int) Math.min(1 << 30, expectedRegisters / count + 1);
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    /* murmur3 finalizer: spreads sequential addresses over stripes and slots */
+    static long mix(long addr) {
+        addr ^= addr >>> 33;
+        addr *= 0xff51afd7ed558ccdL;
+        addr ^= addr >>> 33;
+        addr *= 0xc4ceb9fe1a85ec53L;
+        addr ^= addr >>> 33;
+        return addr;
+    }
+
+    private Stripe stripeFor(long hash) {
+        return stripes[(int) (hash >>> 40) & stripeMask];
+    }
+
+    @Override
+    public Register read(long addr) {
+        var hash = mix(addr);
+        return stripeFor(hash).read(addr, (int) hash);
+    }
+
+    @Override
+    public boolean update(long addr, long label, long value) {
+        var hash = mix(addr);
+        return stripeFor(hash).update(addr, (int) hash, label, value);
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (var stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void forEach(RegisterVisitor visitor) {
+        for (var stripe : stripes) {
+            stripe.forEach(visitor);
+        }
+    }
+
+    @Override
+    public int parts() {
+        return stripes.length;
+    }
+
+    @Override
+    public void forEach(int part, RegisterVisitor visitor) {
+        stripes[part].forEach(visitor);
+    }
+
+    /* the arrays of a table never change size, so a reader holding a stale table can still probe it safely */
+    private static final class Table {
+        final long[] addrs;
+        final long[] labels;
+        final long[] values;
+        final boolean[] used;
+        final int mask;
+
+        Table(int capacity) {
+            addrs = new long[capacity];
+            labels = new long[capacity];
+            values = new long[capacity];
+            used = new boolean[capacity];
+            mask = capacity - 1;
+        }
+
+        /* @return the slot holding addr, or the free slot where it belongs encoded as -(slot + 1) */
+        int find(long addr, int hash) {
+            var i = hash & mask;
+            while (used[i]) {
+                if (addrs[i] == addr) return i;
+                i = (i + 1) & mask;
+            }
+            return -(i + 1);
+        }
+
+        void put(int slot, long addr, long label, long value) {
+            addrs[slot] = addr;
+            labels[slot] = label;
+            values[slot] = value;
+            used[slot] = true;
+        }
+    }
+
+    private static final class Stripe {
+        private final StampedLock lock = new StampedLock();
+        private Table table;
+        private int size;
+        private int threshold;
+
+        Stripe(int expected) {
+            var capacity = Integer.highestOneBit(Math.max(8, (int) (expected / LOAD_FACTOR)) - 1) << 1;
+            table = new Table(capacity);
+            threshold = (int) (capacity * LOAD_FACTOR);
+        }
+
+        Register read(long addr, int hash) {
+            var stamp = lock.tryOptimisticRead();
+            var register = lookup(addr, hash);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    register = lookup(addr, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return register;
+        }
+
+        private Register lookup(long addr, int hash) {
+            var t = table;
+            var slot = t.find(addr, hash);
+            return slot < 0 ? null : new Register(t.labels[slot], t.values[slot]);
+        }
+
+        boolean update(long addr, int hash, long label, long value) {
+            var stamp = lock.writeLock();
+            try {
+                var slot = table.find(addr, hash);
+                if (slot >= 0) {
+                    if (Long.compareUnsigned(label, table.labels[slot]) <= 0) return false;
+                    table.labels[slot] = label;
+                    table.values[slot] = value;
+                    return true;
+                }
+                if (size >= threshold) {
+                    grow();
+                    slot = table.find(addr, hash);
+                }
+                table.put(-(slot + 1), addr, label, value);
+                size++;
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int size() {
+            var stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void forEach(RegisterVisitor visitor) {
+            var stamp = lock.readLock();
+            try {
+                var t = table;
+                for (int i = 0; i < t.addrs.length; i++) {
+                    if (t.used[i]) visitor.visit(t.addrs[i], t.labels[i], t.values[i]);
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private void grow() {
+            var old = table;
+            var bigger = new Table(old.addrs.length << 1);
+            for (int i = 0; i < old.addrs.length; i++) {
+                if (!old.used[i]) continue;
+                var slot = bigger.find(old.addrs[i], (int) mix(old.addrs[i]));
+                bigger.put(-(slot + 1), old.addrs[i], old.labels[i], old.values[i]);
+            }
+            table = bigger;
+            threshold = (int) (bigger.addrs.length * LOAD_FACTOR);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package edu.sjsu.cs249.abd;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Help.Visibility;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static edu.sjsu.cs249.abd.CliUtil.info;
+import static edu.sjsu.cs249.abd.CliUtil.warn;
+
+@Command(name = "suite", mixinStandardHelpOptions = true,
+        description = "run the conformance checks of client testServerProcesses and testClient against many server lists at once " +
+                "and write a JSON report with the result and time of every check. " +
+                "lists that share a server are checked one after the other. exits with 1 if any check failed.")
+class SuiteCli implements Callable<Integer> {
+    enum Checks {SERVER, CLIENT}
+
+    @Parameters(description = "comma separated lists of servers, one for each set of servers to check.", paramLabel = "servers", arity = "0..*")
+    List<String> lists = new ArrayList<>();
+
+    @Option(names = "--lists", description = "file with one comma separated list of servers on each line. blank lines and lines starting with # are skipped")
+    Path listsFile;
+
+    @Option(names = "--checks", split = ",", description = "checks to run on each list: ${COMPLETION-CANDIDATES}", defaultValue = "SERVER,CLIENT", showDefaultValue = Visibility.ALWAYS)
+    List<Checks> checks;
+
+    @Option(names = "--driver", description = "client to check, run in this JVM: builtin or the name of a class implementing ABDClientDriver", defaultValue = "builtin", showDefaultValue = Visibility.ALWAYS)
+    String driverClass;
+
+    @Option(names = "--client", description = "client to check as a commandline, run once for each operation with the servers and the operation appended. overrides --driver")
+    String clientCommand;
+
+    @Option(names = "--parallel", description = "most lists checked at once", defaultValue = "8", showDefaultValue = Visibility.ALWAYS)
+    int parallel;
+
+    @Option(names = "--first-addr", description = "first address of the range used by the first list", defaultValue = "0", showDefaultValue = Visibility.ALWAYS)
+    long firstAddr;
+
+    @Option(names = "--stride", description = "distance between the address ranges of consecutive lists", defaultValue = "1000000", showDefaultValue = Visibility.ALWAYS)
+    long stride;
+
+    @Option(names = "--deadline", description = "milliseconds each server gets to answer a check's request", defaultValue = "2000", showDefaultValue = Visibility.ALWAYS)
+    long deadline;
+
+    @Option(names = "--report", description = "file to write the JSON report to, - for standard out, which moves progress messages to standard error", defaultValue = "suite-report.json", showDefaultValue = Visibility.ALWAYS)
+    String report;
+
+    private record Run(int index, String servers, long firstAddr, List<ConformanceSuite.CheckResult> results, long nanos) {
+        boolean passed() {
+            return results.stream().allMatch(ConformanceSuite.CheckResult::passed);
+        }
+    }
+
+    @Override
+    public Integer call() throws IOException, InterruptedException, ExecutionException {
+        if (listsFile != null) {
+            for (var line : Files.readAllLines(listsFile)) {
+                line = line.strip();
+                if (!line.isEmpty() && !line.startsWith("#")) lists.add(line);
+            }
+        }
+        if (lists.isEmpty()) CliUtil.fatal("no server lists to check");
+        /* keep the report on stdout parseable */
+        if (report.equals("-")) CliUtil.enableStderr(true);
+
+        var start = System.nanoTime();
+        var lanes = lanes();
+        info("checking {0} server lists in {1} independent lanes", lists.size(), lanes.size());
+        var executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallel, lanes.size())));
+        var futures = new ArrayList<Future<List<Run>>>();
+        for (var lane : lanes) {
+            futures.add(executor.submit(() -> lane.stream().map(this::run).toList()));
+        }
+        var runs = new Run[lists.size()];
+        for (var future : futures) {
+            for (var run : future.get()) runs[run.index] = run;
+        }
+        executor.shutdown();
+
+        var json = json(Arrays.asList(runs), System.nanoTime() - start);
+        if (report.equals("-")) {
+            System.out.println(json);
+        } else {
+            Files.writeString(Path.of(report), json + "\n");
+            info("wrote report to {0}", report);
+        }
+        var failed = Arrays.stream(runs).filter(r -> !r.passed()).count();
+        info("{0} of {1} server lists passed", runs.length - failed, runs.length);
+        return failed == 0 ? 0 : 1;
+    }
+
+    /* groups of list indexes, where lists in different groups share no server and can be checked at the same time */
+    private List<List<Integer>> lanes() {
+        var lanes = new ArrayList<List<Integer>>();
+        var laneServers = new ArrayList<Set<String>>();
+        for (int i = 0; i < lists.size(); i++) {
+            var servers = new HashSet<>(Arrays.asList(lists.get(i).split(",")));
+            var lane = new ArrayList<>(List.of(i));
+            for (int l = lanes.size() - 1; l >= 0; l--) {
+                if (laneServers.get(l).stream().noneMatch(servers::contains)) continue;
+                lane.addAll(lanes.remove(l));
+                servers.addAll(laneServers.remove(l));
+            }
+            lane.sort(null);
+            lanes.add(lane);
+            laneServers.add(servers);
+        }
+        return lanes;
+    }
+
+    private Run run(int index) {
+        var servers = lists.get(index);
+        var base = firstAddr + index * stride;
+        var start = System.nanoTime();
+        var suite = new ConformanceSuite(Arrays.asList(servers.split(",")), base, deadline, new ConformanceSuite.Listener() {
+            @Override
+            public void finished(ConformanceSuite.CheckResult result) {
+                if (result.passed()) {
+                    info("{0}: {1} passed", servers, result.name());
+                } else {
+                    warn("{0}: {1} failed: {2}", servers, result.name(), result.message());
+                }
+            }
+        });
+        if (checks.contains(Checks.SERVER)) suite.serverChecks();
+        if (checks.contains(Checks.CLIENT)) {
+            if (clientCommand != null) {
+                suite.clientChecks(Main.ClientCli.processRunner(Main.ClientCli.concat(clientCommand.split(" "), servers)));
+            } else {
+                try (var driver = Main.ClientCli.loadDriver(driverClass)) {
+                    driver.connect(servers);
+                    suite.clientChecks(Main.ClientCli.driverRunner(driver));
+                } catch (Exception e) {
+                    warn("{0}: could not start client driver {1}: {2}", servers, driverClass, e);
+                    suite.results().add(new ConformanceSuite.CheckResult("client driver", false, 0, e.toString()));
+                }
+            }
+        }
+        return new Run(index, servers, base, suite.results(), System.nanoTime() - start);
+    }
+
+    private static String json(List<Run> runs, long nanos) {
+        var failed = runs.stream().filter(r -> !r.passed()).count();
+        return "{\"passed\":" + (failed == 0) + ",\"lists\":" + runs.size() + ",\"failedLists\":" + failed +
+                ",\"millis\":" + millis(nanos) + ",\"runs\":[" +
+                runs.stream().map(SuiteCli::json).collect(Collectors.joining(",\n ")) + "]}";
+    }
+
+    private static String json(Run run) {
+        return "{\"servers\":" + quote(run.servers) + ",\"firstAddr\":" + run.firstAddr + ",\"passed\":" + run.passed() +
+                ",\"millis\":" + millis(run.nanos) + ",\"checks\":[" +
+                run.results.stream().map(c -> "{\"name\":" + quote(c.name()) + ",\"passed\":" + c.passed() +
+                        ",\"millis\":" + millis(c.nanos()) + ",\"message\":" + (c.message() == null ? "null" : quote(c.message())) + "}")
+                        .collect(Collectors.joining(",")) + "]}";
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String s) {
+        var sb = new StringBuilder("\"");
+        for (var c : s.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
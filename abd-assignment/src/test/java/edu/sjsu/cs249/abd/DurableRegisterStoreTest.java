@@ -0,0 +1,85 @@
+package edu.sjsu.cs249.abd;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DurableRegisterStoreTest {
+    private static final int WRITERS = 4;
+    private static final int ADDRS_PER_WRITER = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DurableRegisterStore open(DurableRegisterStore.SyncPolicy policy) throws IOException {
+        return DurableRegisterStore.open(folder.getRoot().toPath(), policy, 10, Long.MAX_VALUE,
+                n -> new StripedRegisterStore(16, Math.max(n, 1024)));
+    }
+
+    @Test
+    public void reopenKeepsUpdatesAndSnapshot() throws IOException {
+        try (var store = open(DurableRegisterStore.SyncPolicy.PER_OP)) {
+            assertTrue(store.update(1, 5, 50));
+            store.snapshot();
+            assertTrue(store.update(2, 7, 70));
+            assertTrue(!store.update(1, 4, 40));
+        }
+        try (var store = open(DurableRegisterStore.SyncPolicy.PER_OP)) {
+            assertEquals(new RegisterStore.Register(5, 50), store.read(1));
+            assertEquals(new RegisterStore.Register(7, 70), store.read(2));
+            assertEquals(2, store.size());
+        }
+    }
+
+    /* every acknowledged update has to survive a reopen, even with snapshots deleting log segments under it */
+    @Test
+    public void snapshotsDuringUpdatesLoseNothing() throws Exception {
+        var acked = new AtomicLongArray(WRITERS * ADDRS_PER_WRITER);
+        var stop = new AtomicBoolean();
+        try (var store = open(DurableRegisterStore.SyncPolicy.BATCHED)) {
+            var threads = new ArrayList<Thread>();
+            for (int w = 0; w < WRITERS; w++) {
+                var first = w * ADDRS_PER_WRITER;
+                threads.add(new Thread(() -> {
+                    for (long label = 1; !stop.get(); label++) {
+                        for (int addr = first; addr < first + ADDRS_PER_WRITER; addr++) {
+                            if (label % 2 == 0) {
+                                store.updateAll(1, new long[]{addr}, new long[]{label}, new long[]{label * 10});
+                            } else {
+                                store.update(addr, label, label * 10);
+                            }
+                            acked.set(addr, label);
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (int i = 0; i < 10; i++) {
+                store.snapshot();
+            }
+            stop.set(true);
+            for (var thread : threads) {
+                thread.join();
+            }
+        }
+        try (var store = open(DurableRegisterStore.SyncPolicy.BATCHED)) {
+            for (int addr = 0; addr < acked.length(); addr++) {
+                if (acked.get(addr) == 0) continue;
+                var register = store.read(addr);
+                assertNotNull("lost register " + addr, register);
+                assertTrue("register " + addr + " went back to " + register.label() + " from " + acked.get(addr),
+                        register.label() >= acked.get(addr));
+                assertEquals(register.label() * 10, register.value());
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package edu.sjsu.cs249.abd;
+
+import edu.sjsu.cs249.abd.Grpc.NameRequest;
+import edu.sjsu.cs249.abd.Grpc.WriteRequest;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * calls to a real server over localhost, first through a channel built just for the call, as the clients used
+ * to, and then through a {@link ChannelPool}.
+ */
+@Fork(1)
+public class ChannelPoolBenchmark {
+    private static final NameRequest NAME = NameRequest.newBuilder().build();
+
+    @State(Scope.Benchmark)
+    public static class Target {
+        Server server;
+        String target;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            var service = new ABDServer("pool-bench", new StripedRegisterStore(), Executors.newCachedThreadPool(), new ServerMetrics(), () -> {});
+            server = ServerThreads.builder(0, Executors.newCachedThreadPool(), 0, 0).addService(service).build().start();
+            target = "localhost:" + server.getPort();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            server.shutdownNow();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Pooled {
+        @Param({"1", "4"})
+        int subchannels;
+
+        ChannelPool pool;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            pool = new ChannelPool(subchannels, 300);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.close();
+        }
+    }
+
+    /** what a client command paid before: a new connection, one call, and a shutdown. */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 2, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public Object firstCallNewChannel(Target target) throws InterruptedException {
+        var channel = ManagedChannelBuilder.forTarget(target.target).usePlaintext().build();
+        try {
+            return ABDServiceGrpc.newBlockingStub(channel).name(NAME);
+        } finally {
+            channel.shutdownNow().awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /** the same call once the pool has a warm connection. */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 2, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public Object firstCallPooled(Target target, Pooled pooled) {
+        return ABDServiceGrpc.newBlockingStub(pooled.pool.get(target.target)).name(NAME);
+    }
+
+    /** many threads writing through the pool: shows what spreading a target over subchannels buys. */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Threads(16)
+    public Object steadyStatePooled(Target target, Pooled pooled) {
+        var addr = ThreadLocalRandom.current().nextInt(100_000);
+        return ABDServiceGrpc.newBlockingStub(pooled.pool.get(target.target))
+                .write(WriteRequest.newBuilder().setAddr(addr).setLabel(1).setValue(addr).build());
+    }
+}
@@ -0,0 +1,83 @@
+package edu.sjsu.cs249.abd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import picocli.CommandLine.Help;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.concurrent.TimeUnit;
+
+/** the cost of one console line, written to a stream that throws it away. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CliUtilBenchmark {
+    @Param({"false", "true"})
+    boolean timestamp;
+
+    long addr = 0x1234_5678L;
+    PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream(), false));
+        CliUtil.enableTimestamp(timestamp);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+        CliUtil.enableDebug(false);
+    }
+
+    @Benchmark
+    public void plain() {
+        CliUtil.enablePlain(true);
+        CliUtil.info("dropping read1 {0}", addr);
+    }
+
+    @Benchmark
+    public void terminal() {
+        CliUtil.enablePlain(false);
+        CliUtil.info("dropping read1 {0}", addr);
+    }
+
+    @Benchmark
+    public void debugDisabled() {
+        CliUtil.enableDebug(false);
+        CliUtil.debug("dropping read1 {0}", addr);
+    }
+
+    /* what every line cost before: two formats, a new date format, a text table and a flush */
+    @Benchmark
+    public void before() {
+        var rawMessage = MessageFormat.format("dropping read1 {0}", addr);
+        var stylizedMessage = Help.Ansi.ON.string(MessageFormat.format("{0} @|{1} {2}|@",
+                timestamp ? new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss").format(new java.util.Date()) : "",
+                "blue", rawMessage));
+        var line = new Help.Column(80, 0, Help.Column.Overflow.WRAP);
+        var txtTable = Help.TextTable.forColumns(Help.defaultColorScheme(Help.Ansi.ON), line);
+        txtTable.indentWrappedLines = 0;
+        txtTable.addRowValues(stylizedMessage);
+        System.out.print(txtTable);
+        System.out.flush();
+    }
+}
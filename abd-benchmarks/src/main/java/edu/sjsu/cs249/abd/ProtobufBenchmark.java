@@ -0,0 +1,51 @@
+package edu.sjsu.cs249.abd;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import edu.sjsu.cs249.abd.Grpc.Read1Response;
+import edu.sjsu.cs249.abd.Grpc.WriteRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** encode and decode of the messages on the ABD hot path. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtobufBenchmark {
+    long addr = 0x1234_5678_9abcL;
+    Read1Response read1Response = Read1Response.newBuilder().setLabel(0x1_0000_0001L).setValue(1717).build();
+    WriteRequest writeRequest = WriteRequest.newBuilder().setAddr(addr).setLabel(0x1_0000_0001L).setValue(1717).build();
+    byte[] read1ResponseBytes = read1Response.toByteArray();
+    byte[] writeRequestBytes = writeRequest.toByteArray();
+
+    @Benchmark
+    public byte[] encodeRead1Response() {
+        return Read1Response.newBuilder().setLabel(addr).setValue(addr).build().toByteArray();
+    }
+
+    @Benchmark
+    public Read1Response decodeRead1Response() throws InvalidProtocolBufferException {
+        return Read1Response.parseFrom(read1ResponseBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeWriteRequest() {
+        return WriteRequest.newBuilder().setAddr(addr).setLabel(addr).setValue(addr).build().toByteArray();
+    }
+
+    @Benchmark
+    public WriteRequest decodeWriteRequest() throws InvalidProtocolBufferException {
+        return WriteRequest.parseFrom(writeRequestBytes);
+    }
+}
@@ -0,0 +1,85 @@
+package edu.sjsu.cs249.abd;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/** complete ABD reads and writes through {@link ABDClient} against replicas on the grpc in-process transport. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class QuorumBenchmark {
+    private static final int ADDRESSES = 100_000;
+
+    @Param({"3", "5", "7"})
+    int replicas;
+
+    @Param({"false", "true"})
+    boolean pipeline;
+
+    @Param({"true", "false"})
+    boolean fastRead;
+
+    private final List<Server> servers = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    private ABDClient client;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, ExecutionException, InterruptedException {
+        for (int i = 0; i < replicas; i++) {
+            var name = "abd-bench-" + i;
+            var service = new ABDServer(name, new StripedRegisterStore(), MoreExecutors.directExecutor(), new ServerMetrics(), () -> {});
+            servers.add(InProcessServerBuilder.forName(name).directExecutor().addService(service).build().start());
+            channels.add(InProcessChannelBuilder.forName(name).directExecutor().build());
+        }
+        client = new ABDClient(channels, 10, TimeUnit.SECONDS, 0, 0, pipeline, fastRead);
+        for (int addr = 0; addr < ADDRESSES; addr++) {
+            client.write(addr, addr).get();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        channels.forEach(ManagedChannel::shutdownNow);
+        servers.forEach(Server::shutdownNow);
+        channels.clear();
+        servers.clear();
+    }
+
+    @Benchmark
+    public Object read() throws ExecutionException, InterruptedException {
+        return client.read(ThreadLocalRandom.current().nextInt(ADDRESSES)).get();
+    }
+
+    @Benchmark
+    public Object write() throws ExecutionException, InterruptedException {
+        return client.write(ThreadLocalRandom.current().nextInt(ADDRESSES), 17).get();
+    }
+}
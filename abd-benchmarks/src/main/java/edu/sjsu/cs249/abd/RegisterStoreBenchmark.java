@@ -0,0 +1,72 @@
+package edu.sjsu.cs249.abd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StripedRegisterStore} under a read/write mix from every core. addresses=1 puts every thread on the
+ * same register; larger values spread them uniformly.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class RegisterStoreBenchmark {
+    @Param({"1", "1000000"})
+    int addresses;
+
+    @Param({"90", "10"})
+    int readPercent;
+
+    RegisterStore store;
+
+    /* labels interleave over the threads, so no two writers use the same label and all of them keep moving up */
+    @State(Scope.Thread)
+    public static class Writer {
+        long label;
+        long step;
+
+        @Setup
+        public void setup(ThreadParams params) {
+            step = params.getThreadCount();
+            label = step + 1 + params.getThreadIndex();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        store = new StripedRegisterStore(Runtime.getRuntime().availableProcessors() * 64, addresses);
+        for (long addr = 0; addr < addresses; addr++) {
+            store.update(addr, 1, addr);
+        }
+    }
+
+    @Benchmark
+    public Object mixed(Writer writer) {
+        var random = ThreadLocalRandom.current();
+        var addr = random.nextInt(addresses);
+        if (random.nextInt(100) < readPercent) {
+            return store.read(addr);
+        }
+        var label = writer.label;
+        writer.label += writer.step;
+        return store.update(addr, label, addr);
+    }
+}
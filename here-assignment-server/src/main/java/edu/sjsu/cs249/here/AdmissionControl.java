@@ -0,0 +1,173 @@
+package edu.sjsu.cs249.here;
+
+import edu.sjsu.cs249.iamhere.Grpc;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.grpc.Grpc.TRANSPORT_ATTR_REMOTE_ADDR;
+
+/**
+ * Turns away calls the server should not spend time on. Calls beyond the concurrency cap are rejected as soon
+ * as they arrive rather than queued, and each client host and each student id draws from its own token
+ * bucket. Rejected calls fail with RESOURCE_EXHAUSTED.
+ * <p>
+ * A stream of check ins is one call as far as the concurrency cap and the host buckets go. Its ids are not
+ * limited here, since one busy id would fail the whole stream; the service checks each with {@link #admitId}.
+ */
+public class AdmissionControl implements ServerInterceptor {
+    private final int maxConcurrent;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Buckets byAddress;
+    private final Buckets byId;
+
+    /**
+     * @param maxConcurrent most calls in progress at once, 0 for no limit.
+     * @param addressRate calls per second allowed from one host, 0 for no limit.
+     * @param idRate here calls per second allowed for one id, 0 for no limit.
+     * the bursts are how many calls may come at once before the rate applies, 0 for a second's worth.
+     * @param tableSize most buckets of each kind remembered. the least recently used are forgotten first.
+     */
+    public AdmissionControl(int maxConcurrent, double addressRate, double addressBurst, double idRate, double idBurst, int tableSize) {
+        this.maxConcurrent = maxConcurrent;
+        byAddress = addressRate > 0 ? new Buckets(addressRate, addressBurst, tableSize) : null;
+        byId = idRate > 0 ? new Buckets(idRate, idBurst, tableSize) : null;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        /* check the cap first so a call turned away as busy does not also spend a token of its host */
+        if (inFlight.incrementAndGet() > maxConcurrent && maxConcurrent > 0) {
+            inFlight.decrementAndGet();
+            return reject(call, "server busy");
+        }
+        if (byAddress != null) {
+            var remote = call.getAttributes().get(TRANSPORT_ATTR_REMOTE_ADDR);
+            /* limit the host, not the connection, so reconnecting does not buy more calls */
+            Object host = remote instanceof InetSocketAddress inet && inet.getAddress() != null ? inet.getAddress() : remote;
+            if (!byAddress.tryAcquire(host)) {
+                inFlight.decrementAndGet();
+                return reject(call, "too many calls from " + host);
+            }
+        }
+        var listener = next.startCall(call, headers);
+        var limitIds = byId != null && call.getMethodDescriptor().getType().clientSendsOneMessage();
+        var finished = new boolean[1];
+        return new SimpleForwardingServerCallListener<>(listener) {
+            boolean rejected;
+
+            @Override
+            public void onMessage(ReqT message) {
+                if (limitIds && message instanceof Grpc.HereRequest here && !byId.tryAcquire(here.getId())) {
+                    rejected = true;
+                    call.close(Status.RESOURCE_EXHAUSTED.withDescription("too many check ins for " + here.getId()), new Metadata());
+                    return;
+                }
+                super.onMessage(message);
+            }
+
+            @Override
+            public void onHalfClose() {
+                if (!rejected) super.onHalfClose();
+            }
+
+            @Override
+            public void onComplete() {
+                done();
+                super.onComplete();
+            }
+
+            @Override
+            public void onCancel() {
+                done();
+                super.onCancel();
+            }
+
+            /* gives back the slot the call was admitted with. grpc delivers the call's callbacks one at a time, so the flag is safe without a lock */
+            private void done() {
+                if (finished[0]) return;
+                finished[0] = true;
+                inFlight.decrementAndGet();
+            }
+        };
+    }
+
+    /** @return true if id may check in now, taking a token from its bucket. */
+    public boolean admitId(int id) {
+        return byId == null || byId.tryAcquire(id);
+    }
+
+    private static <ReqT> ServerCall.Listener<ReqT> reject(ServerCall<ReqT, ?> call, String why) {
+        call.close(Status.RESOURCE_EXHAUSTED.withDescription(why), new Metadata());
+        return new ServerCall.Listener<>() {};
+    }
+
+    /* token buckets keyed by client. split over stripes, each an LRU map guarded by its own lock. */
+    private static final class Buckets {
+        private static final int STRIPES = 16;
+        private final double perNano;
+        private final double burst;
+        private final Stripe[] stripes = new Stripe[STRIPES];
+
+        Buckets(double perSecond, double burst, int tableSize) {
+            this.perNano = perSecond / 1e9;
+            this.burst = Math.max(1, burst > 0 ? burst : perSecond);
+            var perStripe = Math.max(1, tableSize / STRIPES);
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new Stripe(perStripe);
+            }
+        }
+
+        boolean tryAcquire(Object key) {
+            var now = System.nanoTime();
+            var stripe = stripes[(key.hashCode() * 0x9e3779b9 >>> 16) & (STRIPES - 1)];
+            synchronized (stripe) {
+                var bucket = stripe.get(key);
+                if (bucket == null) {
+                    bucket = new Bucket(burst, now);
+                    stripe.put(key, bucket);
+                }
+                bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.refilled) * perNano);
+                bucket.refilled = now;
+                if (bucket.tokens < 1) return false;
+                bucket.tokens--;
+                return true;
+            }
+        }
+    }
+
+    /* an LRU map of buckets that forgets the least recently used once it holds more than capacity */
+    private static final class Stripe extends LinkedHashMap<Object, Bucket> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Bucket> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private static final class Bucket {
+        double tokens;
+        long refilled;
+
+        Bucket(double tokens, long refilled) {
+            this.tokens = tokens;
+            this.refilled = refilled;
+        }
+    }
+}
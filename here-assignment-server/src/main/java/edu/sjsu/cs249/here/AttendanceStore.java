@@ -0,0 +1,452 @@
+package edu.sjsu.cs249.here;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Who checked in to which session, and when. Each session is a partition with its own append only segment
+ * file, session.seg, in the data directory. Within a session students are hashed by id over stripes that each
+ * have their own lock and a primitive int keyed index, so a whole class checking in at once rarely contends.
+ * Checking in again for the same session is a no-op that returns the original check in.
+ * <p>
+ * A segment record is: int length of the rest, int id, long millis, short name length, name, int crc32c of
+ * everything after the length. Records are written with positional writes, so appenders never wait on each other,
+ * and the new check ins of a batch go out in a single write. A check in is only visible, to queries and to
+ * other registrations, once its write is done, and with syncMillis 0 once it is forced to disk too. With a
+ * positive syncMillis segments are forced on a timer instead, and a machine crash can lose the check ins of the
+ * last interval; a process crash loses nothing either way.
+ */
+public class AttendanceStore implements Closeable {
+    private static final Pattern SESSION_NAME = Pattern.compile("[A-Za-z0-9._-]+");
+    private static final String SUFFIX = ".seg";
+    private static final int STRIPES = 64;
+
+    public record Attendance(String session, int id, String name, long millis) {}
+
+    /** the check in that counts for a register call, and whether that call made it. */
+    public record CheckIn(Attendance attendance, boolean added) {}
+
+    private final Path dir;
+    private final boolean forceEachBatch;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService syncer;
+
+    /**
+     * open the store in dir, replaying any sessions already there.
+     * @param syncMillis milliseconds between forces of the segments, 0 to force every batch before it counts.
+     */
+    public AttendanceStore(Path dir, long syncMillis) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.forceEachBatch = syncMillis <= 0;
+        try (var files = Files.list(dir)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                var fileName = file.getFileName().toString();
+                if (!fileName.endsWith(SUFFIX)) continue;
+                var name = fileName.substring(0, fileName.length() - SUFFIX.length());
+                sessions.put(name, new Session(name, file));
+            }
+        }
+        if (forceEachBatch) {
+            syncer = null;
+        } else {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                var t = new Thread(r, "attendance-sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(this::sync, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sync() {
+        for (var s : sessions.values()) {
+            try {
+                s.channel.force(false);
+            } catch (IOException e) {
+                System.err.println("forcing attendance of " + s.session + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public static boolean validSession(String session) {
+        return SESSION_NAME.matcher(session).matches();
+    }
+
+    /**
+     * check id in to session.
+     * @return the check in that counts: the new one, or the earlier one if id was already checked in.
+     */
+    public CheckIn register(String session, int id, String name, long millis) throws IOException {
+        return session(session).registerAll(new int[]{id}, new String[]{name}, millis)[0];
+    }
+
+    /**
+     * check each ids[i] in to session as names[i]. the records of all new check ins are appended with one write.
+     * @return for each id the check in that counts, as for {@link #register}. an id that appears more than once
+     * is added only by its first appearance.
+     */
+    public CheckIn[] registerAll(String session, int[] ids, String[] names, long millis) throws IOException {
+        return session(session).registerAll(ids, names, millis);
+    }
+
+    private Session session(String session) throws IOException {
+        var s = sessions.get(session);
+        if (s != null) return s;
+        if (!validSession(session)) throw new IllegalArgumentException("bad session name " + session);
+        try {
+            return sessions.computeIfAbsent(session, n -> {
+                try {
+                    return new Session(n, dir.resolve(n + SUFFIX));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException ioe) throw ioe;
+            throw e;
+        }
+    }
+
+    /** @return every session id checked in to, oldest first. */
+    public List<Attendance> byId(int id) {
+        var found = new ArrayList<Attendance>();
+        for (var s : sessions.values()) {
+            var a = s.get(id);
+            if (a != null) found.add(a);
+        }
+        found.sort(Comparator.comparingLong(Attendance::millis));
+        return found;
+    }
+
+    /** @return every check in from fromMillis (inclusive) to toMillis (exclusive), oldest first. */
+    public List<Attendance> between(long fromMillis, long toMillis) {
+        var found = new ArrayList<Attendance>();
+        for (var s : sessions.values()) {
+            if (s.maxMillis.get() < fromMillis || s.minMillis.get() >= toMillis) continue;
+            s.collect(fromMillis, toMillis, found);
+        }
+        found.sort(Comparator.comparingLong(Attendance::millis));
+        return found;
+    }
+
+    /** @return the number of students checked in to each session, by session name. */
+    public Map<String, Integer> counts() {
+        var counts = new TreeMap<String, Integer>();
+        sessions.forEach((name, s) -> counts.put(name, s.size()));
+        return counts;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) syncer.shutdownNow();
+        for (var s : sessions.values()) {
+            s.channel.force(false);
+            s.channel.close();
+        }
+    }
+
+    private static int mix(int id) {
+        id ^= id >>> 16;
+        id *= 0x85ebca6b;
+        id ^= id >>> 13;
+        id *= 0xc2b2ae35;
+        id ^= id >>> 16;
+        return id;
+    }
+
+    private final class Session {
+        final String session;
+        final FileChannel channel;
+        final AtomicLong end = new AtomicLong();
+        final AtomicLong minMillis = new AtomicLong(Long.MAX_VALUE);
+        final AtomicLong maxMillis = new AtomicLong(Long.MIN_VALUE);
+        final Stripe[] stripes = new Stripe[STRIPES];
+
+        Session(String session, Path file) throws IOException {
+            this.session = session;
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new Stripe();
+            }
+            channel = FileChannel.open(file, CREATE, READ, WRITE);
+            replay();
+        }
+
+        /*
+         * load the segment. appenders reserve their space before writing it, so a crash can leave a gap of zeros or
+         * a torn record with complete records after it. anything that is not a record is skipped a byte at a time
+         * until one parses, and only what follows the last record is cut off.
+         */
+        private void replay() throws IOException {
+            var buf = ByteBuffer.allocate((int) channel.size());
+            while (buf.hasRemaining() && channel.read(buf, buf.position()) > 0) {}
+            buf.flip();
+            var crc = new CRC32C();
+            var position = 0;
+            var valid = 0;
+            while (buf.limit() - position >= 22) {
+                var size = recordSize(buf, position, crc);
+                if (size < 0) {
+                    position++;
+                    continue;
+                }
+                var id = buf.getInt(position + 4);
+                var millis = buf.getLong(position + 8);
+                var name = new String(buf.array(), position + 18, size - 22, StandardCharsets.UTF_8);
+                var stripe = stripes[mix(id) & (STRIPES - 1)];
+                synchronized (stripe) {
+                    stripe.putIfAbsent(id, name, millis);
+                }
+                seen(millis);
+                position += size;
+                valid = position;
+            }
+            end.set(valid);
+            channel.truncate(valid);
+        }
+
+        /* @return the size of the record starting at position, or -1 if none does */
+        private static int recordSize(ByteBuffer buf, int position, CRC32C crc) {
+            var length = buf.getInt(position);
+            if (length < 18 || length > buf.limit() - position - 4) return -1;
+            if ((buf.getShort(position + 16) & 0xffff) != length - 18) return -1;
+            crc.reset();
+            crc.update(buf.array(), position + 4, length - 4);
+            return (int) crc.getValue() == buf.getInt(position + length) ? length + 4 : -1;
+        }
+
+        private void seen(long millis) {
+            minMillis.accumulateAndGet(millis, Math::min);
+            maxMillis.accumulateAndGet(millis, Math::max);
+        }
+
+        /*
+         * claim each id under its stripe lock as pending, append the records of the new check ins in one write, and
+         * only then publish them. a registration that finds an id pending in another batch waits for that batch:
+         * the id then counts as already checked in, or is tried again if the batch failed. a batch only waits after
+         * its own claims are settled, so two batches never wait on each other.
+         */
+        CheckIn[] registerAll(int[] ids, String[] names, long millis) throws IOException {
+            var found = new CheckIn[ids.length];
+            var records = new byte[ids.length][];
+            var first = new HashMap<Integer, Integer>();
+            var waitFor = new CompletableFuture<?>[ids.length];
+            var written = new CompletableFuture<Void>();
+            var total = 0;
+            for (int i = 0; i < ids.length; i++) {
+                var earlier = first.putIfAbsent(ids[i], i);
+                if (earlier != null) continue;
+                var stripe = stripes[mix(ids[i]) & (STRIPES - 1)];
+                synchronized (stripe) {
+                    var existing = stripe.get(ids[i]);
+                    if (existing >= 0) {
+                        found[i] = new CheckIn(stripe.attendance(session, existing), false);
+                        continue;
+                    }
+                    var other = stripe.claim(ids[i], written);
+                    if (other != null) {
+                        waitFor[i] = other;
+                        continue;
+                    }
+                }
+                found[i] = new CheckIn(new Attendance(session, ids[i], names[i], millis), true);
+                records[i] = record(ids[i], names[i], millis);
+                total += records[i].length;
+            }
+            if (total > 0) {
+                try {
+                    write(records, total);
+                } catch (IOException | RuntimeException e) {
+                    /* nothing of this batch is known to be on disk, so its ids go back to never checked in */
+                    settle(ids, names, millis, records, false);
+                    written.completeExceptionally(e);
+                    throw e;
+                }
+                seen(millis);
+                settle(ids, names, millis, records, true);
+                written.complete(null);
+            }
+            for (int i = 0; i < ids.length; i++) {
+                var earlier = first.get(ids[i]);
+                if (earlier != i) {
+                    found[i] = new CheckIn(found[earlier].attendance(), false);
+                } else if (waitFor[i] != null) {
+                    found[i] = afterPending(ids[i], names[i], millis, waitFor[i]);
+                }
+            }
+            return found;
+        }
+
+        private void write(byte[][] records, int total) throws IOException {
+            var buf = ByteBuffer.allocate(total);
+            for (var record : records) {
+                if (record != null) buf.put(record);
+            }
+            buf.flip();
+            var position = end.getAndAdd(total);
+            while (buf.hasRemaining()) {
+                position += channel.write(buf, position);
+            }
+            if (forceEachBatch) channel.force(false);
+        }
+
+        /* drop the pending claims of a batch, adding its check ins to the index if it was written */
+        private void settle(int[] ids, String[] names, long millis, byte[][] records, boolean written) {
+            for (int i = 0; i < ids.length; i++) {
+                if (records[i] == null) continue;
+                var stripe = stripes[mix(ids[i]) & (STRIPES - 1)];
+                synchronized (stripe) {
+                    stripe.unclaim(ids[i]);
+                    if (written) stripe.putIfAbsent(ids[i], names[i], millis);
+                }
+            }
+        }
+
+        /* @return the check in of id once the batch that had it pending is settled */
+        private CheckIn afterPending(int id, String name, long millis, CompletableFuture<?> pending) throws IOException {
+            try {
+                pending.join();
+            } catch (CompletionException e) {
+                return registerAll(new int[]{id}, new String[]{name}, millis)[0];
+            }
+            var existing = get(id);
+            return existing != null ? new CheckIn(existing, false) : registerAll(new int[]{id}, new String[]{name}, millis)[0];
+        }
+
+        private static byte[] record(int id, String name, long millis) {
+            var nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if (nameBytes.length > 0xffff) nameBytes = Arrays.copyOf(nameBytes, 0xffff);
+            var buf = ByteBuffer.allocate(22 + nameBytes.length);
+            buf.putInt(18 + nameBytes.length).putInt(id).putLong(millis).putShort((short) nameBytes.length).put(nameBytes);
+            var crc = new CRC32C();
+            crc.update(buf.array(), 4, buf.position() - 4);
+            buf.putInt((int) crc.getValue());
+            return buf.array();
+        }
+
+        Attendance get(int id) {
+            var stripe = stripes[mix(id) & (STRIPES - 1)];
+            synchronized (stripe) {
+                var i = stripe.get(id);
+                return i < 0 ? null : stripe.attendance(session, i);
+            }
+        }
+
+        void collect(long fromMillis, long toMillis, List<Attendance> found) {
+            for (var stripe : stripes) {
+                synchronized (stripe) {
+                    for (int i = 0; i < stripe.count; i++) {
+                        var millis = stripe.millis[i];
+                        if (millis >= fromMillis && millis < toMillis) found.add(stripe.attendance(session, i));
+                    }
+                }
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (var stripe : stripes) {
+                synchronized (stripe) {
+                    size += stripe.count;
+                }
+            }
+            return size;
+        }
+    }
+
+    /*
+     * check ins in arrival order, with an open addressing index from id to position, and the ids claimed by
+     * batches still being written. guarded by itself.
+     */
+    private static final class Stripe {
+        int count;
+        /* created on first use, since most stripes never see two batches race for an id */
+        HashMap<Integer, CompletableFuture<Void>> pending;
+        int[] ids = new int[8];
+        long[] millis = new long[8];
+        String[] names = new String[8];
+        /* slot holds position + 1, so 0 is empty */
+        int[] slotIds = new int[16];
+        int[] slotPositions = new int[16];
+
+        /* @return the position of id or -1 */
+        int get(int id) {
+            var mask = slotIds.length - 1;
+            for (int slot = mix(id) >>> 6 & mask; ; slot = slot + 1 & mask) {
+                var position = slotPositions[slot];
+                if (position == 0) return -1;
+                if (slotIds[slot] == id) return position - 1;
+            }
+        }
+
+        void putIfAbsent(int id, String name, long when) {
+            if (get(id) >= 0) return;
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                millis = Arrays.copyOf(millis, count * 2);
+                names = Arrays.copyOf(names, count * 2);
+            }
+            ids[count] = id;
+            millis[count] = when;
+            names[count] = name;
+            count++;
+            if (count * 2 > slotIds.length) {
+                slotIds = new int[slotIds.length * 2];
+                slotPositions = new int[slotPositions.length * 2];
+                for (int i = 0; i < count; i++) {
+                    index(ids[i], i);
+                }
+            } else {
+                index(id, count - 1);
+            }
+        }
+
+        /* @return the batch that already claimed id, or null after claiming it for written */
+        CompletableFuture<Void> claim(int id, CompletableFuture<Void> written) {
+            if (pending == null) pending = new HashMap<>();
+            return pending.putIfAbsent(id, written);
+        }
+
+        void unclaim(int id) {
+            pending.remove(id);
+        }
+
+        private void index(int id, int position) {
+            var mask = slotIds.length - 1;
+            var slot = mix(id) >>> 6 & mask;
+            while (slotPositions[slot] != 0) {
+                slot = slot + 1 & mask;
+            }
+            slotIds[slot] = id;
+            slotPositions[slot] = position + 1;
+        }
+
+        Attendance attendance(String session, int position) {
+            return new Attendance(session, ids[position], names[position], millis[position]);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package edu.sjsu.cs249.here;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * Records every here request without holding up the handler. Requests go into a bounded queue and a single
+ * writer thread drains it in batches, so the output is written and flushed once per batch rather than once
+ * per line. When the queue is full the request is either dropped and counted or the handler waits.
+ */
+public class AuditLog implements Closeable {
+    public enum FullPolicy { DROP, BLOCK }
+
+    private static final int MAX_BATCH = 1024;
+    /* how long the writer waits for an entry before looking at closed again */
+    private static final long POLL_MILLIS = 100;
+    private static final HexFormat HEX = HexFormat.of();
+
+    record Entry(long millis, SocketAddress remote, String name, int id, int rc, String codeHash) {}
+
+    private final ArrayBlockingQueue<Entry> queue;
+    private final FullPolicy policy;
+    private final Writer out;
+    /* stdout is shared with the rest of the server, so only a log file of our own is closed */
+    private final boolean ownsOut;
+    private final Thread writer;
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param path file to append to, or null for stdout.
+     * @param capacity most entries waiting to be written.
+     */
+    public AuditLog(Path path, int capacity, FullPolicy policy) throws IOException {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.ownsOut = path != null;
+        this.out = path == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)
+                : Files.newBufferedWriter(path, StandardCharsets.UTF_8, CREATE, APPEND);
+        writer = new Thread(this::drain, "audit-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** @return a short fingerprint of code, enough to spot identical submissions. */
+    static String hash(String code) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(code.getBytes(StandardCharsets.UTF_8));
+            return HEX.formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void record(SocketAddress remote, String name, int id, int rc, String code) {
+        var entry = new Entry(System.currentTimeMillis(), remote, name, id, rc, hash(code));
+        if (policy == FullPolicy.BLOCK) {
+            try {
+                queue.put(entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped.increment();
+            }
+        } else if (!queue.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    /** @return the number of entries that never made it into the log. */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private void drain() {
+        var batch = new ArrayList<Entry>(MAX_BATCH);
+        long reportedDrops = 0;
+        var line = new StringBuilder();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                var first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH - batch.size());
+            try {
+                for (var e : batch) {
+                    line.setLength(0);
+                    line.append(Instant.ofEpochMilli(e.millis())).append(" remote=").append(e.remote())
+                            .append(" id=").append(e.id()).append(" rc=").append(e.rc())
+                            .append(" code=").append(e.codeHash())
+                            .append(" name=\"");
+                    escape(e.name(), line).append("\"\n");
+                    out.append(line);
+                }
+                var drops = dropped.sum();
+                if (drops != reportedDrops) {
+                    out.append(Instant.now().toString()).append(" dropped ").append(String.valueOf(drops - reportedDrops))
+                            .append(" entries\n");
+                    reportedDrops = drops;
+                }
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("audit log write failed: " + e.getMessage());
+            }
+            batch.clear();
+        }
+    }
+
+    /* names come from clients, so anything that could end the quoted name or the line is escaped */
+    private static StringBuilder escape(String name, StringBuilder line) {
+        for (int i = 0; i < name.length(); i++) {
+            var c = name.charAt(i);
+            switch (c) {
+                case '"' -> line.append("\\\"");
+                case '\\' -> line.append("\\\\");
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                default -> line.append(c);
+            }
+        }
+        return line;
+    }
+
+    /**
+     * write everything queued so far and stop. the writer is never interrupted, since an interrupt in the middle
+     * of a write closes the file channel and loses whatever is still queued; it sees closed on its next poll.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownsOut) {
+            out.close();
+        } else {
+            out.flush();
+        }
+    }
+}
@@ -3,37 +3,172 @@ package edu.sjsu.cs249.here;
 import edu.sjsu.cs249.iamhere.Grpc;
 import edu.sjsu.cs249.iamhere.HereServiceGrpc;
 import io.grpc.*;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
+import java.io.IOException;
 import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import static io.grpc.Grpc.TRANSPORT_ATTR_REMOTE_ADDR;
 
 public class Main {
 
-    @Command(subcommands = { ClientCli.class, ServerCli.class})
+    @Command(subcommands = { ClientCli.class, ServerCli.class, AttendanceCli.class})
     static class Cli {}
     @Command(name = "client", mixinStandardHelpOptions = true, description = "register attendance for class.")
     static class ClientCli implements Callable<Integer> {
         @Parameters(index = "0", description = "host:port to connect to.")
         String serverPort;
 
+        @Option(names = "--upload", description = "check in every line of this file with hereBatch. a line is id,name,code and the code may contain commas")
+        Path upload;
+
         @Override
         public Integer call() throws Exception {
             System.out.printf("will contact %s\n", serverPort);
             var lastColon = serverPort.lastIndexOf(':');
             var host = serverPort.substring(0, lastColon);
             var port = Integer.parseInt(serverPort.substring(lastColon+1));
+            /* one call and the process exits, so a pooled channel would buy nothing; it is just always shut down */
             var channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
-            var stub = HereServiceGrpc.newBlockingStub(channel);
-            System.out.println("here says " + stub.hello(Grpc.HelloRequest.newBuilder().setName("ben").build()).getMessage());
-            var rsp = stub.here(Grpc.HereRequest.newBuilder().setName("ben reed").setId(23432).setCode("hello world!").build());
-            System.out.println("RC = " + rsp.getRc() + " " + rsp.getMessage());
-            return 0;
+            try {
+                if (upload != null) return upload(channel);
+                var stub = HereServiceGrpc.newBlockingStub(channel);
+                System.out.println("here says " + stub.hello(Grpc.HelloRequest.newBuilder().setName("ben").build()).getMessage());
+                var rsp = stub.here(Grpc.HereRequest.newBuilder().setName("ben reed").setId(23432).setCode("hello world!").build());
+                System.out.println("RC = " + rsp.getRc() + " " + rsp.getMessage());
+                return 0;
+            } finally {
+                channel.shutdownNow();
+            }
+        }
+
+        /* streams the file as fast as the server takes it and prints the lines that were not checked in */
+        private int upload(ManagedChannel channel) throws Exception {
+            var lines = new ArrayList<Integer>();
+            var result = new CompletableFuture<Grpc.HereBatchResponse>();
+            var start = System.nanoTime();
+            try (var reader = Files.newBufferedReader(upload)) {
+                HereServiceGrpc.newStub(channel).hereBatch(new ClientResponseObserver<Grpc.HereRequest, Grpc.HereBatchResponse>() {
+                    int lineNumber;
+                    boolean done;
+
+                    @Override
+                    public void beforeStart(ClientCallStreamObserver<Grpc.HereRequest> requests) {
+                        requests.setOnReadyHandler(() -> {
+                            try {
+                                while (!done && requests.isReady()) {
+                                    var line = reader.readLine();
+                                    lineNumber++;
+                                    if (line == null) {
+                                        done = true;
+                                        requests.onCompleted();
+                                    } else if (!line.isBlank()) {
+                                        var fields = line.split(",", 3);
+                                        requests.onNext(Grpc.HereRequest.newBuilder().setId(Integer.parseInt(fields[0].strip()))
+                                                .setName(fields.length > 1 ? fields[1].strip() : "")
+                                                .setCode(fields.length > 2 ? fields[2] : "").build());
+                                        lines.add(lineNumber);
+                                    }
+                                }
+                            } catch (IOException | RuntimeException e) {
+                                done = true;
+                                requests.onError(Status.CANCELLED.withDescription("line " + lineNumber + ": " + e.getMessage()).asException());
+                                result.completeExceptionally(e);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onNext(Grpc.HereBatchResponse value) {
+                        result.complete(value);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                });
+                Grpc.HereBatchResponse rsp;
+                try {
+                    rsp = result.get();
+                } catch (ExecutionException e) {
+                    System.out.println("upload failed: " + e.getCause().getMessage());
+                    return 1;
+                }
+                var seconds = (System.nanoTime() - start) / 1e9;
+                for (int i = 0; i < rsp.getRcCount(); i++) {
+                    if (rsp.getRc(i) != 0) System.out.println("line " + lines.get(i) + ": RC = " + rsp.getRc(i));
+                }
+                System.out.printf("%d checked in, %d already checked in, %d rejected in %.3f s (%.0f/s)\n",
+                        rsp.getCheckedIn(), rsp.getAlreadyCheckedIn(), rsp.getRejected(), seconds, rsp.getRcCount() / seconds);
+                return rsp.getRejected() == 0 ? 0 : 1;
+            }
+        }
+    }
+
+    @Command(name = "attendance", mixinStandardHelpOptions = true, description = "look up who checked in.")
+    static class AttendanceCli implements Callable<Integer> {
+        @Parameters(index = "0", description = "host:port to connect to.")
+        String serverPort;
+
+        @Option(names = "--id", description = "list the sessions this id checked in to")
+        Integer id;
+
+        @Option(names = "--from", description = "list check ins at or after this instant (ISO-8601, e.g. 2023-02-01T18:00:00Z)")
+        Instant from;
+
+        @Option(names = "--to", description = "list check ins before this instant (ISO-8601)")
+        Instant to;
+
+        @Override
+        public Integer call() throws Exception {
+            var channel = ManagedChannelBuilder.forTarget(serverPort).usePlaintext().build();
+            try {
+                var stub = HereServiceGrpc.newBlockingStub(channel);
+                if (id != null) {
+                    print(stub.attendanceById(Grpc.AttendanceByIdRequest.newBuilder().setId(id).build()));
+                } else if (from != null || to != null) {
+                    print(stub.attendanceBetween(Grpc.AttendanceBetweenRequest.newBuilder()
+                            .setFromMillis(from == null ? Long.MIN_VALUE : from.toEpochMilli())
+                            .setToMillis(to == null ? Long.MAX_VALUE : to.toEpochMilli()).build()));
+                } else {
+                    for (var c : stub.sessionCounts(Grpc.SessionCountsRequest.newBuilder().build()).getSessionList()) {
+                        System.out.println(c.getSession() + " " + c.getCount());
+                    }
+                }
+                return 0;
+            } finally {
+                channel.shutdownNow();
+            }
+        }
+
+        private static void print(Grpc.AttendanceResponse rsp) {
+            for (var a : rsp.getAttendanceList()) {
+                System.out.println(a.getSession() + " " + Instant.ofEpochMilli(a.getMillis()) + " " + a.getId() + " " + a.getName());
+            }
         }
     }
 
@@ -42,43 +177,307 @@ public class Main {
         @Parameters(index = "0", description = "port to connect listen on.")
         int port;
 
+        @Option(names = "--metrics-port", description = "port to serve Prometheus metrics on (0 to disable)", defaultValue = "0")
+        int metricsPort;
+
+        @Option(names = "--audit-log", description = "file to append the audit log to (default stdout)")
+        Path auditLog;
+
+        @Option(names = "--audit-buffer", description = "most audit entries waiting to be written", defaultValue = "65536")
+        int auditBuffer;
+
+        @Option(names = "--audit-full", description = "what to do when the audit buffer is full: ${COMPLETION-CANDIDATES}", defaultValue = "DROP")
+        AuditLog.FullPolicy auditFull;
+
+        @Option(names = "--data-dir", description = "directory holding the attendance segments", defaultValue = "attendance")
+        Path dataDir;
+
+        @Option(names = "--sync-millis", description = "milliseconds between forces of the attendance segments to disk (0 forces every check in before answering)", defaultValue = "0")
+        long syncMillis;
+
+        @Option(names = "--executor", description = "what runs request handlers: ${COMPLETION-CANDIDATES}", defaultValue = "CACHED")
+        ServerThreads.Mode executorMode;
+
+        @Option(names = "--threads", description = "handler threads with --executor FIXED (0 for two per core)", defaultValue = "0")
+        int threads;
+
+        @Option(names = "--boss-threads", description = "netty threads accepting connections (0 for the grpc default)", defaultValue = "0")
+        int bossThreads;
+
+        @Option(names = "--worker-threads", description = "netty threads serving connections (0 for the grpc default)", defaultValue = "0")
+        int workerThreads;
+
+        @Option(names = "--max-message", description = "largest request accepted in bytes", defaultValue = "65536")
+        int maxMessage;
+
+        @Option(names = "--max-concurrent", description = "most calls in progress before new ones are turned away (0 for no limit)", defaultValue = "1000")
+        int maxConcurrent;
+
+        @Option(names = "--addr-rate", description = "calls per second allowed from one host (0 for no limit)", defaultValue = "0")
+        double addressRate;
+
+        @Option(names = "--addr-burst", description = "calls one host may make at once before --addr-rate applies (0 for one second's worth)", defaultValue = "0")
+        double addressBurst;
+
+        @Option(names = "--id-rate", description = "check ins per second allowed for one id (0 for no limit)", defaultValue = "0")
+        double idRate;
+
+        @Option(names = "--id-burst", description = "check ins for one id at once before --id-rate applies (0 for one second's worth)", defaultValue = "0")
+        double idBurst;
+
+        @Option(names = "--rate-table", description = "most hosts and ids tracked by the rate limits", defaultValue = "100000")
+        int rateTable;
+
+        @Option(names = "--max-batch", description = "most check ins in one hereBatch stream", defaultValue = "1000000")
+        int maxBatch;
+
+        @Option(names = "--batch-threads", description = "threads checking in the entries of hereBatch streams (0 for one per core)", defaultValue = "0")
+        int batchThreads;
+
+        @Option(names = "--session", description = "session to check students in to (default today's date)")
+        String session;
+
         static class MyHereService extends HereServiceGrpc.HereServiceImplBase {
+            /* entries of a hereBatch stream checked in together by one task */
+            private static final int CHUNK = 1024;
+            /* chunks of one stream received but not yet checked in. the stream asks for more only as they finish */
+            private static final int CHUNKS_IN_FLIGHT = 4;
+            private final ServerMetrics metrics;
+            private final AuditLog audit;
+            private final AttendanceStore attendance;
+            private final String session;
+            private final AdmissionControl admission;
+            private final Executor batchExecutor;
+            private final int maxBatch;
+
+            /**
+             * @param session session to check in to, or null for the current date.
+             * @param batchExecutor runs the chunks of hereBatch streams in parallel. it should not be the handler
+             *                      executor, so bulk uploads do not queue ahead of here calls.
+             */
+            MyHereService(ServerMetrics metrics, AuditLog audit, AttendanceStore attendance, String session,
+                          AdmissionControl admission, Executor batchExecutor, int maxBatch) {
+                this.metrics = metrics;
+                this.audit = audit;
+                this.attendance = attendance;
+                this.session = session;
+                this.admission = admission;
+                this.batchExecutor = batchExecutor;
+                this.maxBatch = maxBatch;
+            }
+
+            private String session() {
+                return session == null ? LocalDate.now().toString() : session;
+            }
+
+            /* @return why the request will not be checked in, or null if it looks right */
+            private static String invalid(Grpc.HereRequest request) {
+                if (request.getId() < 10000000 || request.getId() > 90000000) return "id looks wrong";
+                if (request.getName() == null || request.getName().length() < 4) return "name looks wrong";
+                if (!request.getCode().contains("main(")) return "code is missing public static main";
+                return null;
+            }
 
             @Override
             public void here(Grpc.HereRequest request, StreamObserver<Grpc.HereResponse> responseObserver) {
                 int rc = 0;
                 String msg = "welcome to class!";
-                System.out.println("Connection from " + REMOTE_ADDR.get());
-                System.out.println(request.getName() + " " + request.getId());
-                System.out.println(request.getCode());
-                if (request.getId() < 10000000 || request.getId() > 90000000) {
-                    rc = 1;
-                    msg = "id looks wrong";
-                } else if (request.getName() == null || request.getName().length() < 4) {
-                    rc = 1;
-                    msg = "name looks wrong";
-                } else if (!request.getCode().contains("main(")) {
+                var invalid = invalid(request);
+                if (invalid != null) {
                     rc = 1;
-                    msg = "code is missing public static main";
-
+                    msg = invalid;
+                } else {
+                    var now = System.currentTimeMillis();
+                    try {
+                        var checkedIn = attendance.register(session(), request.getId(), request.getName(), now);
+                        if (!checkedIn.added()) {
+                            msg = "already checked in at " + Instant.ofEpochMilli(checkedIn.attendance().millis());
+                        }
+                    } catch (IOException e) {
+                        responseObserver.onError(Status.INTERNAL.withDescription("could not record attendance").asException());
+                        return;
+                    }
                 }
-                System.out.println("--------------");
+                audit.record(REMOTE_ADDR.get(), request.getName(), request.getId(), rc, request.getCode());
                 responseObserver.onNext(Grpc.HereResponse.newBuilder().setRc(rc).setMessage(msg).build());
                 responseObserver.onCompleted();;
             }
 
+            /* the rc of each entry of a chunk, and how many were already checked in */
+            private record Checked(int[] rc, int already) {}
+
+            @Override
+            public StreamObserver<Grpc.HereRequest> hereBatch(StreamObserver<Grpc.HereBatchResponse> responseObserver) {
+                var remote = REMOTE_ADDR.get();
+                var chunks = new ArrayList<CompletableFuture<Checked>>();
+                /* asking for one message at a time costs a trip through the transport for every entry */
+                var calls = (ServerCallStreamObserver<Grpc.HereBatchResponse>) responseObserver;
+                calls.disableAutoRequest();
+                calls.request(CHUNKS_IN_FLIGHT * CHUNK);
+                return new StreamObserver<>() {
+                    List<Grpc.HereRequest> chunk = new ArrayList<>(CHUNK);
+                    int count;
+                    boolean failed;
+
+                    @Override
+                    public void onNext(Grpc.HereRequest request) {
+                        if (failed) return;
+                        if (++count > maxBatch) {
+                            failed = true;
+                            responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription("more than " + maxBatch + " check ins in one batch").asException());
+                            return;
+                        }
+                        chunk.add(request);
+                        if (chunk.size() == CHUNK) flush();
+                    }
+
+                    private void flush() {
+                        var requests = chunk;
+                        var checked = CompletableFuture.supplyAsync(() -> checkIn(requests, remote), batchExecutor);
+                        checked.whenComplete((c, t) -> calls.request(CHUNK));
+                        chunks.add(checked);
+                        chunk = new ArrayList<>(CHUNK);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        failed = true;
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        if (failed) return;
+                        if (!chunk.isEmpty()) flush();
+                        CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new)).whenComplete((v, t) -> {
+                            if (t != null) {
+                                responseObserver.onError(Status.INTERNAL.withDescription("could not check in batch").withCause(t).asException());
+                                return;
+                            }
+                            var rsp = Grpc.HereBatchResponse.newBuilder();
+                            int already = 0;
+                            int rejected = 0;
+                            for (var c : chunks) {
+                                var checked = c.join();
+                                already += checked.already;
+                                for (var rc : checked.rc) {
+                                    rsp.addRc(rc);
+                                    if (rc != 0) rejected++;
+                                }
+                            }
+                            responseObserver.onNext(rsp.setCheckedIn(count - rejected - already).setAlreadyCheckedIn(already).setRejected(rejected).build());
+                            responseObserver.onCompleted();
+                        });
+                    }
+                };
+            }
+
+            /* checks in the requests that look right and are not rate limited with one store write */
+            private Checked checkIn(List<Grpc.HereRequest> requests, SocketAddress remote) {
+                var rc = new int[requests.size()];
+                var ids = new int[requests.size()];
+                var names = new String[requests.size()];
+                var admitted = new int[requests.size()];
+                var count = 0;
+                for (int i = 0; i < requests.size(); i++) {
+                    var request = requests.get(i);
+                    if (invalid(request) != null) {
+                        rc[i] = 1;
+                    } else if (!admission.admitId(request.getId())) {
+                        rc[i] = 2;
+                    } else {
+                        ids[count] = request.getId();
+                        names[count] = request.getName();
+                        admitted[count++] = i;
+                    }
+                }
+                int already = 0;
+                if (count > 0) {
+                    var now = System.currentTimeMillis();
+                    try {
+                        var found = attendance.registerAll(session(), Arrays.copyOf(ids, count), Arrays.copyOf(names, count), now);
+                        for (var checkIn : found) {
+                            if (!checkIn.added()) already++;
+                        }
+                    } catch (IOException e) {
+                        for (int j = 0; j < count; j++) rc[admitted[j]] = 3;
+                    }
+                }
+                for (int i = 0; i < requests.size(); i++) {
+                    var request = requests.get(i);
+                    audit.record(remote, request.getName(), request.getId(), rc[i], request.getCode());
+                }
+                return new Checked(rc, already);
+            }
+
             @Override
             public void hello(Grpc.HelloRequest request, StreamObserver<Grpc.HelloResponse> responseObserver) {
                 responseObserver.onNext(Grpc.HelloResponse.newBuilder().setMessage("hello " + request.getName() + "!").build());
                 responseObserver.onCompleted();
             }
+
+            @Override
+            public void attendanceById(Grpc.AttendanceByIdRequest request, StreamObserver<Grpc.AttendanceResponse> responseObserver) {
+                responseObserver.onNext(toResponse(attendance.byId(request.getId())));
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void attendanceBetween(Grpc.AttendanceBetweenRequest request, StreamObserver<Grpc.AttendanceResponse> responseObserver) {
+                responseObserver.onNext(toResponse(attendance.between(request.getFromMillis(), request.getToMillis())));
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void sessionCounts(Grpc.SessionCountsRequest request, StreamObserver<Grpc.SessionCountsResponse> responseObserver) {
+                var rsp = Grpc.SessionCountsResponse.newBuilder();
+                attendance.counts().forEach((name, count) ->
+                        rsp.addSession(Grpc.SessionCount.newBuilder().setSession(name).setCount(count)));
+                responseObserver.onNext(rsp.build());
+                responseObserver.onCompleted();
+            }
+
+            private static Grpc.AttendanceResponse toResponse(List<AttendanceStore.Attendance> found) {
+                var rsp = Grpc.AttendanceResponse.newBuilder();
+                for (var a : found) {
+                    rsp.addAttendance(Grpc.Attendance.newBuilder()
+                            .setSession(a.session()).setId(a.id()).setName(a.name()).setMillis(a.millis()));
+                }
+                return rsp.build();
+            }
+
+            @Override
+            public void stats(Grpc.StatsRequest request, StreamObserver<Grpc.StatsResponse> responseObserver) {
+                responseObserver.onNext(metrics.stats());
+                responseObserver.onCompleted();
+            }
         }
 
         static private Context.Key<SocketAddress> REMOTE_ADDR = Context.key("REMOTE_ADDR");
         @Override
         public Integer call() throws Exception {
+            Executor executor;
+            try {
+                executor = ServerThreads.executor(executorMode, threads > 0 ? threads : Runtime.getRuntime().availableProcessors() * 2);
+            } catch (IllegalArgumentException e) {
+                throw new CommandLine.ParameterException(new CommandLine(this), e.getMessage());
+            }
             System.out.printf("listening on %d\n", port);
-            var server = ServerBuilder.forPort(port).intercept(new ServerInterceptor() {
+            var metrics = new ServerMetrics();
+            if (session != null && !AttendanceStore.validSession(session)) {
+                throw new CommandLine.ParameterException(new CommandLine(this), "session may only contain letters, digits, '.', '_' and '-'");
+            }
+            var audit = new AuditLog(auditLog, auditBuffer, auditFull);
+            var attendance = new AttendanceStore(dataDir, syncMillis);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    audit.close();
+                    attendance.close();
+                } catch (Exception e) {
+                    System.err.println("closing: " + e.getMessage());
+                }
+            }));
+            var admission = new AdmissionControl(maxConcurrent, addressRate, addressBurst, idRate, idBurst, rateTable);
+            var server = ServerThreads.builder(port, executor, bossThreads, workerThreads).intercept(new ServerInterceptor() {
                 @Override
                 public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> sc, Metadata h,
                                                                              ServerCallHandler<ReqT, RespT> next) {
@@ -86,8 +485,14 @@ public class Main {
                     return Contexts.interceptCall(Context.current().withValue(REMOTE_ADDR, remote),
                             sc, h, next);
                 }
-            }).addService(new MyHereService()).build();
+            }).intercept(admission).intercept(metrics).maxInboundMessageSize(maxMessage)
+                    .addService(new MyHereService(metrics, audit, attendance, session, admission,
+                            Executors.newFixedThreadPool(batchThreads > 0 ? batchThreads : Runtime.getRuntime().availableProcessors()), maxBatch)).build();
             server.start();
+            if (metricsPort > 0) {
+                metrics.serveHttp(metricsPort);
+                System.out.printf("metrics at http://localhost:%d/metrics\n", metricsPort);
+            }
             server.awaitTermination();
             return 0;
         }
@@ -2,7 +2,6 @@ package edu.sjsu.cs249.here;
 
 import edu.sjsu.cs249.iamhere.Grpc;
 import edu.sjsu.cs249.iamhere.HereServiceGrpc;
-import io.grpc.ManagedChannelBuilder;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Parameters;
@@ -21,10 +20,7 @@ public class Main {
         @Override
         public Integer call() throws Exception {
             System.out.printf("will contact %s\n", serverPort);
-            var lastColon = serverPort.lastIndexOf(':');
-            var host = serverPort.substring(0, lastColon);
-            var port = Integer.parseInt(serverPort.substring(lastColon+1));
-            var channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
+            var channel = ChannelPool.shared().get(serverPort);
             var stub = HereServiceGrpc.newBlockingStub(channel);
             System.out.println(stub.hello(Grpc.HelloRequest.newBuilder().setName("ben").build()).getMessage());
             return 0;